@@ -0,0 +1,112 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+
+/**
+ * Asynchronous decodes for CompletableFuture pipelines. Each call runs one blocking decode on the given executor and
+ * completes the future with its result, or exceptionally with the IOException it threw. With the virtual thread
+ * executor of Java 21, Executors.newVirtualThreadPerTaskExecutor(), thousands of decodes can be in flight without a
+ * platform thread each: the decoder holds no monitor while it blocks on input, and streams are read through a channel
+ * that does not either. A pipelined decoder passed in runs its entropy stage on the executor of its setExecutor(),
+ * e.g. the same virtual thread executor, and only starts a platform thread of its own when it has none.
+ *
+ * Built from its own source tree at Java 8, so the core keeps its older target.
+ */
+public final class JPEGLosslessAsync {
+
+	private JPEGLosslessAsync() {
+	}
+
+
+
+	public static CompletableFuture<int[][]> decodeAsync(final byte[] data, final Executor executor) {
+		return decodeAsync(ByteBuffer.wrap(data), executor);
+	}
+
+
+
+	public static CompletableFuture<int[][]> decodeAsync(final ByteBuffer data, final Executor executor) {
+		return supply(() -> new JPEGLosslessDecoder(data).decode(), executor);
+	}
+
+
+
+	/**
+	 * Decodes while the stream is read, see JPEGLosslessDecoder(InputStream).
+	 */
+	public static CompletableFuture<int[][]> decodeAsync(final InputStream in, final Executor executor) {
+		return supply(() -> new JPEGLosslessDecoder(in).decode(), executor);
+	}
+
+
+
+	/**
+	 * Decodes with a decoder the caller set up, e.g. with a region or default tables. The decoder must not be used
+	 * until the future completes.
+	 */
+	public static CompletableFuture<int[][]> decodeAsync(final JPEGLosslessDecoder decoder, final Executor executor) {
+		return supply(() -> decoder.decode(), executor);
+	}
+
+
+
+	/**
+	 * Streams the rows to sink, on a thread of executor.
+	 */
+	public static CompletableFuture<Void> decodeAsync(final JPEGLosslessDecoder decoder, final RowSink sink, final Executor executor) {
+		return supply(() -> {
+			decoder.decode(sink);
+			return null;
+		}, executor);
+	}
+
+
+
+	public static CompletableFuture<BufferedImage> readImageAsync(final byte[] data, final Executor executor) {
+		return readImageAsync(ByteBuffer.wrap(data), null, executor);
+	}
+
+
+
+	/**
+	 * Like JPEGLosslessDecoderWrapper.readImage(ByteBuffer, BufferedImage). reuse must not be used until the future
+	 * completes.
+	 */
+	public static CompletableFuture<BufferedImage> readImageAsync(final ByteBuffer data, final BufferedImage reuse, final Executor executor) {
+		return supply(() -> new JPEGLosslessDecoderWrapper().readImage(data, reuse), executor);
+	}
+
+
+
+	private static <T> CompletableFuture<T> supply(final Decode<T> decode, final Executor executor) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		try {
+			executor.execute(() -> {
+				try {
+					future.complete(decode.run());
+				} catch (final Throwable e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (final RuntimeException e) { // rejected
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+
+
+	@FunctionalInterface
+	private interface Decode<T> {
+
+		T run() throws IOException;
+	}
+}
@@ -0,0 +1,195 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ * Enforces the zero-allocation steady state of pooled decoders: acquire, decode into a caller supplied buffer and
+ * release. A working set of streams over several predictors, precisions, component counts, restart intervals, sizes
+ * and output layouts is decoded over and over, interleaved with one-off streams that are decoded once each, like
+ * images whose encoder optimized the Huffman tables per image. After a warm-up pass the calling thread must not
+ * allocate a single byte, and every decode must still match the source image. Exits with status 1 otherwise.
+ *
+ * The rounds are measured in several passes and the pass that allocated least counts: the JIT allocates on the
+ * decoding thread now and then, e.g. when deoptimized code materializes objects escape analysis had removed, but a
+ * decoder that allocates does so in every pass.
+ *
+ * Arguments: [rounds, default 20] [maxSize, default 256]
+ *
+ * ant alloccheck -Dalloccheck.args="50 512"
+ */
+public final class AllocationCheck {
+
+	private static final int ONE_OFF_PER_ROUND = 4;
+	private static final int PASSES = 5;
+
+
+
+	private AllocationCheck() {
+	}
+
+
+
+	public static void main(final String[] args) throws IOException {
+		final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		final int maxSize = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		final long thread = Thread.currentThread().getId();
+
+		final List<Corpus.Entry> entries = new ArrayList<Corpus.Entry>(); // few enough tables to stay in the cache
+		for (final int selection : new int[] { 1, 4, 7 }) {
+			for (final int precision : new int[] { 8, 16 }) {
+				for (final int components : Corpus.COMPONENTS) {
+					final int size = Math.min(64 << ((selection + precision) % 3), maxSize);
+					entries.add(Corpus.create(selection, precision, components, (selection & 1) * 8, size, size / 2));
+				}
+			}
+		}
+
+		final Set<String> tables = new HashSet<String>();
+		int maxWidth = 0;
+		for (final Corpus.Entry entry : entries) {
+			addTables(entry.data, tables);
+			maxWidth = Math.max(maxWidth, entry.width);
+		}
+
+		// one-off streams no wider than the working set, whose decodes the decoder has grown its rows for
+		final int widths = ((maxWidth - Math.min(64, maxWidth)) / 8) + 1;
+		final List<Corpus.Entry> oneOff = new ArrayList<Corpus.Entry>(); // each with tables no other stream uses
+		for (int i = 0; oneOff.size() < (((PASSES * rounds) + 1) * ONE_OFF_PER_ROUND); i++) {
+			final int shape = i / 21;
+			final int width = Math.min(64, maxWidth) + (8 * (shape % widths));
+			final int height = 32 + ((shape / widths) % Math.max(1, maxSize - 31));
+			final Corpus.Entry entry = Corpus.create(1 + (i % 7), Corpus.PRECISIONS[(i / 7) % 3], 1, 0, width, height);
+
+			if (addTables(entry.data, tables)) {
+				oneOff.add(entry);
+			}
+		}
+
+		final ByteBuffer[] inputs = wrap(entries);
+		final ByteBuffer[] oneOffInputs = wrap(oneOff);
+		final short[] shorts = new short[3 * maxSize * maxSize];
+		final int[] ints = new int[3 * maxSize * maxSize];
+		final JPEGLosslessDecoderPool pool = new JPEGLosslessDecoderPool(1);
+
+		for (int i = 0; i < 3; i++) { // warm-up, the decoder grows to the largest image and the tables get cached
+			decodeAll(pool, inputs, shorts, ints);
+		}
+		decodeOnce(pool, oneOffInputs, 0, shorts);
+
+		final long calibration = threads.getThreadAllocatedBytes(thread);
+		final long overhead = threads.getThreadAllocatedBytes(thread) - calibration;
+
+		long allocated = Long.MAX_VALUE;
+		for (int pass = 0; pass < PASSES; pass++) {
+			final long before = threads.getThreadAllocatedBytes(thread);
+			for (int i = 1; i <= rounds; i++) {
+				decodeAll(pool, inputs, shorts, ints);
+				decodeOnce(pool, oneOffInputs, (pass * rounds) + i, shorts);
+			}
+			allocated = Math.min(allocated, (threads.getThreadAllocatedBytes(thread) - before) - overhead);
+		}
+		final long decodes = rounds * ((2L * inputs.length) + ONE_OFF_PER_ROUND);
+
+		int mismatches = 0;
+		final List<Corpus.Entry> all = new ArrayList<Corpus.Entry>(entries);
+		all.addAll(oneOff);
+		for (final Corpus.Entry entry : all) {
+			final JPEGLosslessDecoder decoder = pool.acquire(entry.data);
+			decoder.decode(shorts, 0, 0, JPEGLosslessDecoder.OUTPUT_PLANAR);
+			pool.release(decoder);
+
+			if (!matches(entry, shorts)) {
+				System.out.println("MISMATCH " + entry.name());
+				mismatches++;
+			}
+		}
+
+		System.out.println(PASSES + " passes of " + decodes + " decodes, " + allocated + " bytes allocated in steady state (least of a pass), " + mismatches
+				+ " mismatches");
+
+		if ((allocated > 0) || (mismatches > 0)) {
+			System.exit(1);
+		}
+	}
+
+
+
+	// Adds the table definitions of the DHT segments in data, true if none of them was in tables yet.
+	private static boolean addTables(final byte[] data, final Set<String> tables) {
+		boolean added = true;
+		int i = 2;
+
+		while (((i + 4) <= data.length) && ((((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF)) != 0xFFDA)) {
+			final int length = ((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF);
+
+			if ((data[i + 1] & 0xFF) == 0xC4) {
+				added &= tables.add(Arrays.toString(Arrays.copyOfRange(data, i + 5, i + 2 + length)));
+			}
+
+			i += length + 2;
+		}
+
+		return added;
+	}
+
+
+
+	private static ByteBuffer[] wrap(final List<Corpus.Entry> entries) {
+		final ByteBuffer[] buffers = new ByteBuffer[entries.size()];
+		for (int i = 0; i < buffers.length; i++) {
+			buffers[i] = ByteBuffer.wrap(entries.get(i).data);
+		}
+		return buffers;
+	}
+
+
+
+	private static void decodeAll(final JPEGLosslessDecoderPool pool, final ByteBuffer[] inputs, final short[] shorts, final int[] ints)
+			throws IOException {
+		for (int i = 0; i < inputs.length; i++) {
+			JPEGLosslessDecoder decoder = pool.acquire(inputs[i]);
+			decoder.decode(shorts, 0, 0, (i & 1) == 0 ? JPEGLosslessDecoder.OUTPUT_PLANAR : JPEGLosslessDecoder.OUTPUT_INTERLEAVED_BGR);
+			pool.release(decoder);
+
+			decoder = pool.acquire(inputs[i]);
+			decoder.decode(ints, 0, 0, JPEGLosslessDecoder.OUTPUT_INTERLEAVED_RGB);
+			pool.release(decoder);
+		}
+	}
+
+
+
+	private static void decodeOnce(final JPEGLosslessDecoderPool pool, final ByteBuffer[] inputs, final int round, final short[] shorts)
+			throws IOException {
+		for (int i = round * ONE_OFF_PER_ROUND; i < ((round + 1) * ONE_OFF_PER_ROUND); i++) {
+			final JPEGLosslessDecoder decoder = pool.acquire(inputs[i]);
+			decoder.decode(shorts, 0, 0, JPEGLosslessDecoder.OUTPUT_PLANAR);
+			pool.release(decoder);
+		}
+	}
+
+
+
+	private static boolean matches(final Corpus.Entry entry, final short[] planar) {
+		final int samples = entry.width * entry.height;
+
+		for (int c = 0; c < entry.components; c++) {
+			for (int i = 0; i < samples; i++) {
+				if ((planar[(c * samples) + i] & 0xFFFF) != entry.planes[c][i]) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,63 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+/**
+ * DataStream over a byte array with a movable read position, used to replay a single marker segment.
+ */
+final class ByteArrayDataStream implements DataStream {
+
+	private final byte[] data;
+	private int position;
+
+
+
+	ByteArrayDataStream(final byte[] data) {
+		this.data = data;
+	}
+
+
+
+	void seek(final int position) {
+		this.position = position;
+	}
+
+
+
+	@Override
+	public int get16() {
+		final int value = ((data[position] & 0xFF) << 8) | (data[position + 1] & 0xFF);
+		position += 2;
+		return value;
+	}
+
+
+
+	@Override
+	public int get8() {
+		return data[position++] & 0xFF;
+	}
+
+
+
+	/**
+	 * @return offset of the length field of the first segment with the given marker, or -1
+	 */
+	static int findSegment(final byte[] data, final int marker) {
+		int i = 2; // skip SOI
+
+		while ((i + 4) <= data.length) {
+			final int current = ((data[i] & 0xFF) << 8) | (data[i + 1] & 0xFF);
+
+			if (current == marker) {
+				return i + 2;
+			}
+
+			if (current == 0xFFDA) {
+				return -1;
+			}
+
+			i += 2 + (((data[i + 2] & 0xFF) << 8) | (data[i + 3] & 0xFF));
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,77 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * One fresh JPEGLosslessDecoder per request, as a server does it, with every benchmark thread walking the mixed corpus
+ * from a different starting point. Run it through ScalabilityRunner to sweep thread counts, or directly with -t.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class ConcurrentDecodeBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class MixedCorpus {
+
+		@Param({ "1024" })
+		public int maxSize;
+
+		Corpus.Entry[] entries;
+		final AtomicInteger threads = new AtomicInteger();
+
+
+
+		@Setup(Level.Trial)
+		public void setup() {
+			final List<Corpus.Entry> list = Corpus.mixed(maxSize);
+			entries = list.toArray(new Corpus.Entry[list.size()]);
+		}
+	}
+
+
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int next;
+
+
+
+		@Setup(Level.Trial)
+		public void setup(final MixedCorpus corpus) {
+			next = (corpus.threads.getAndIncrement() * 7) % corpus.entries.length;
+		}
+	}
+
+
+
+	@Benchmark
+	public int[][] decode(final MixedCorpus corpus, final Cursor cursor, final DecodeCounters counters) throws IOException {
+		final Corpus.Entry entry = corpus.entries[cursor.next];
+		cursor.next = (cursor.next + 1) % corpus.entries.length;
+
+		final int[][] result = new JPEGLosslessDecoder(entry.data).decode();
+		counters.count(entry);
+		return result;
+	}
+}
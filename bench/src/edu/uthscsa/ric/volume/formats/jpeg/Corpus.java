@@ -0,0 +1,176 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Reproducible synthetic lossless JPEG corpus.
+ *
+ * Images are smooth anatomy-like fields with mild noise, so the SSSS histogram resembles real CT/MR/CR data rather than
+ * white noise. Every entry is fully determined by its parameters, so the same name always produces the same bytes.
+ *
+ * Running main(dir) writes the whole matrix to disk as name.jpg files for use with external tools.
+ */
+public final class Corpus {
+
+	public static final int[] SELECTIONS = { 1, 2, 3, 4, 5, 6, 7 };
+	public static final int[] PRECISIONS = { 8, 12, 16 };
+	public static final int[] COMPONENTS = { 1, 3 };
+	public static final int[] RESTART_ROWS = { 0, 8 };
+	public static final int[] SIZES = { 64, 128, 256, 512, 1024, 2048, 4096 };
+
+	private static final long SEED = 0x4A504547L; // "JPEG"
+
+
+
+	private Corpus() {
+	}
+
+
+
+	public static final class Entry {
+
+		public final int selection;
+		public final int precision;
+		public final int components;
+		public final int restartRows;
+		public final int width;
+		public final int height;
+		public final int[][] planes;
+		public final byte[] data;
+
+
+
+		Entry(final int selection, final int precision, final int components, final int restartRows, final int width, final int height,
+				final int[][] planes, final byte[] data) {
+			this.selection = selection;
+			this.precision = precision;
+			this.components = components;
+			this.restartRows = restartRows;
+			this.width = width;
+			this.height = height;
+			this.planes = planes;
+			this.data = data;
+		}
+
+
+
+		public long pixels() {
+			return (long) width * height;
+		}
+
+
+
+		public String name() {
+			return Corpus.name(selection, precision, components, restartRows, width, height);
+		}
+	}
+
+
+
+	public static String name(final int selection, final int precision, final int components, final int restartRows, final int width, final int height) {
+		return "sel" + selection + "_p" + precision + "_c" + components + (restartRows > 0 ? "_rst" + restartRows : "") + "_" + width + "x" + height;
+	}
+
+
+
+	public static Entry create(final int selection, final int precision, final int components, final int restartRows, final int width, final int height) {
+		final int[][] planes = image(precision, components, width, height);
+		final byte[] data = new LosslessJPEGEncoder(precision, selection, restartRows).encode(planes, width, height);
+		return new Entry(selection, precision, components, restartRows, width, height, planes, data);
+	}
+
+
+
+	public static int[][] image(final int precision, final int components, final int width, final int height) {
+		final Random random = new Random(SEED ^ (((long) precision << 48) | ((long) components << 40) | ((long) width << 20) | height));
+		final int max = (1 << precision) - 1;
+		final double cx = width * (0.4 + (0.2 * random.nextDouble()));
+		final double cy = height * (0.4 + (0.2 * random.nextDouble()));
+		final double radius = 0.45 * Math.min(width, height);
+		final double noise = Math.max(1.0, max / 400.0);
+		final int[][] planes = new int[components][width * height];
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final double dx = (x - cx) / radius;
+				final double dy = (y - cy) / radius;
+				final double r2 = (dx * dx) + (dy * dy);
+				final double body = r2 < 1.0 ? 0.55 + (0.25 * Math.cos(6.0 * dx) * Math.sin(5.0 * dy)) : 0.05;
+				final double base = body + (0.1 * ((double) y / height));
+
+				for (int c = 0; c < components; c++) {
+					final double tint = 1.0 - (0.15 * c);
+					final int v = (int) ((base * tint * max) + (random.nextGaussian() * noise));
+					planes[c][(y * width) + x] = Math.min(max, Math.max(0, v));
+				}
+			}
+		}
+
+		return planes;
+	}
+
+
+
+	/**
+	 * @param maxSize largest edge length to include
+	 */
+	public static List<Entry> mixed(final int maxSize) {
+		final List<Entry> entries = new ArrayList<Entry>();
+
+		for (final int size : SIZES) {
+			if (size > maxSize) {
+				continue;
+			}
+
+			for (final int precision : PRECISIONS) {
+				for (final int components : COMPONENTS) {
+					final int selection = SELECTIONS[(size + precision + components) % SELECTIONS.length];
+					final int restartRows = ((size / 64) % 2) == 0 ? RESTART_ROWS[1] : RESTART_ROWS[0];
+					entries.add(create(selection, precision, components, restartRows, size, size));
+				}
+			}
+		}
+
+		return entries;
+	}
+
+
+
+	public static void main(final String[] args) throws IOException {
+		final File dir = new File(args.length > 0 ? args[0] : "corpus");
+		final int maxSize = args.length > 1 ? Integer.parseInt(args[1]) : SIZES[SIZES.length - 1];
+
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create " + dir);
+		}
+
+		for (final int size : SIZES) {
+			if (size > maxSize) {
+				continue;
+			}
+
+			for (final int selection : SELECTIONS) {
+				for (final int precision : PRECISIONS) {
+					for (final int components : COMPONENTS) {
+						for (final int restartRows : RESTART_ROWS) {
+							final Entry entry = create(selection, precision, components, restartRows, size, size);
+							final OutputStream out = new FileOutputStream(new File(dir, entry.name() + ".jpg"));
+							try {
+								out.write(entry.data);
+							} finally {
+								out.close();
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+}
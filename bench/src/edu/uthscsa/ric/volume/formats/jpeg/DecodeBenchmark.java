@@ -0,0 +1,225 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * End-to-end JPEGLosslessDecoder.decode() over the full corpus matrix. decodePooled reuses one decoder through a
+ * JPEGLosslessDecoderPool and should show a gc.alloc.rate.norm of zero. decodeStream reads the same bytes through an
+ * InputStream, to show the cost of the refillable input window, and decodeDirect from an off-heap copy. decodeRows
+ * hands each row to a RowSink that narrows it into a single row buffer, so its output is O(width). decodeRegion decodes
+ * the centre quarter of the image, skipping the restart intervals above it; its counters still count the whole image.
+ * decodeDisplay window levels into 8 bit display pixels while decoding, decodeThenWindow decodes and then applies the
+ * same window in a second pass over the int[][] result. decodeThumbnail reduces the image to an eighth of its size
+ * while decoding, into a reused buffer. decodeStatistics is decodeIntoInterleaved collecting DecodeStatistics, the cost
+ * of counting and timing every row.
+ *
+ * The default matrix is large; narrow it with -p, e.g. -p size=512 -p precision=16 -p components=1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+	@Param({ "1", "2", "3", "4", "5", "6", "7" })
+	public int selection;
+
+	@Param({ "8", "12", "16" })
+	public int precision;
+
+	@Param({ "1", "3" })
+	public int components;
+
+	@Param({ "0", "8" })
+	public int restartRows;
+
+	@Param({ "64", "128", "256", "512", "1024", "2048", "4096" })
+	public int size;
+
+	private Corpus.Entry entry;
+	private short[][] shortOutput;
+	private short[] interleavedOutput;
+	private ByteBuffer input;
+	private ByteBuffer directInput;
+	private final JPEGLosslessDecoderPool pool = new JPEGLosslessDecoderPool(1);
+	private short[] rowOutput;
+	private byte[][] displayOutput;
+	private DisplayLut window;
+	private short[] thumbnailOutput;
+	private final DecodeStatistics statistics = new DecodeStatistics();
+	private final RowSink rowSink = new RowSink() {
+
+		@Override
+		public void row(final int y, final int[][] samples, final int width) {
+			for (int c = 0; c < components; c++) {
+				final int row[] = samples[c];
+				for (int x = 0; x < width; x++) {
+					rowOutput[(x * components) + c] = (short) row[x];
+				}
+			}
+		}
+	};
+
+
+
+	@Setup(Level.Trial)
+	public void setup() {
+		entry = Corpus.create(selection, precision, components, restartRows, size, size);
+		shortOutput = new short[components][size * size];
+		interleavedOutput = new short[components * size * size];
+		rowOutput = new short[components * size];
+		displayOutput = new byte[components][size * size];
+		thumbnailOutput = new short[components * (size / 8) * (size / 8)];
+		window = DisplayLut.window(precision, false, 1, 0, 1 << (precision - 1), 1 << (precision - 2));
+		input = ByteBuffer.wrap(entry.data);
+		directInput = ByteBuffer.allocateDirect(entry.data.length);
+		directInput.put(entry.data).flip();
+	}
+
+
+
+	@Benchmark
+	public int[][] decode(final DecodeCounters counters) throws IOException {
+		final int[][] result = new JPEGLosslessDecoder(entry.data).decode();
+		counters.count(entry);
+		return result;
+	}
+
+
+
+	@Benchmark
+	public short[][] decodeIntoShort(final DecodeCounters counters) throws IOException {
+		new JPEGLosslessDecoder(entry.data).decode(shortOutput, null, null);
+		counters.count(entry);
+		return shortOutput;
+	}
+
+
+
+	@Benchmark
+	public short[] decodeIntoInterleaved(final DecodeCounters counters) throws IOException {
+		new JPEGLosslessDecoder(entry.data).decode(interleavedOutput, 0, 0, JPEGLosslessDecoder.OUTPUT_INTERLEAVED_RGB);
+		counters.count(entry);
+		return interleavedOutput;
+	}
+
+
+
+	@Benchmark
+	public short[][] decodeStream(final DecodeCounters counters) throws IOException {
+		new JPEGLosslessDecoder(new ByteArrayInputStream(entry.data)).decode(shortOutput, null, null);
+		counters.count(entry);
+		return shortOutput;
+	}
+
+
+
+	@Benchmark
+	public short[][] decodeDirect(final DecodeCounters counters) throws IOException {
+		new JPEGLosslessDecoder(directInput).decode(shortOutput, null, null);
+		counters.count(entry);
+		return shortOutput;
+	}
+
+
+
+	@Benchmark
+	public short[] decodePooled(final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = pool.acquire(input);
+		try {
+			decoder.decode(interleavedOutput, 0, 0, JPEGLosslessDecoder.OUTPUT_INTERLEAVED_RGB);
+		} finally {
+			pool.release(decoder);
+		}
+		counters.count(entry);
+		return interleavedOutput;
+	}
+
+
+
+	@Benchmark
+	public short[] decodeRows(final DecodeCounters counters) throws IOException {
+		new JPEGLosslessDecoder(entry.data).decode(rowSink);
+		counters.count(entry);
+		return rowOutput;
+	}
+
+
+
+	@Benchmark
+	public short[] decodeRegion(final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(entry.data);
+		decoder.setRegion(size / 4, size / 4, size / 2, size / 2);
+		decoder.decode(interleavedOutput, 0, 0, JPEGLosslessDecoder.OUTPUT_INTERLEAVED_RGB);
+		counters.count(entry);
+		return interleavedOutput;
+	}
+
+
+
+	@Benchmark
+	public byte[][] decodeDisplay(final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(entry.data);
+		decoder.setDisplayLut(window);
+		decoder.decode(displayOutput, null, null);
+		counters.count(entry);
+		return displayOutput;
+	}
+
+
+
+	@Benchmark
+	public byte[][] decodeThenWindow(final DecodeCounters counters) throws IOException {
+		final int[][] samples = new JPEGLosslessDecoder(entry.data).decode();
+		for (int c = 0; c < components; c++) {
+			final int plane[] = samples[c];
+			final byte out[] = displayOutput[c];
+			for (int i = 0; i < plane.length; i++) {
+				out[i] = (byte) window.map(plane[i]);
+			}
+		}
+		counters.count(entry);
+		return displayOutput;
+	}
+
+
+
+	@Benchmark
+	public short[] decodeThumbnail(final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(entry.data);
+		decoder.setOutputSize(size / 8, size / 8);
+		decoder.decode(thumbnailOutput, 0, 0, JPEGLosslessDecoder.OUTPUT_INTERLEAVED_RGB);
+		counters.count(entry);
+		return thumbnailOutput;
+	}
+
+
+
+	@Benchmark
+	public short[] decodeStatistics(final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(entry.data);
+		decoder.setStatistics(statistics);
+		decoder.decode(interleavedOutput, 0, 0, JPEGLosslessDecoder.OUTPUT_INTERLEAVED_RGB);
+		counters.count(entry);
+		return interleavedOutput;
+	}
+}
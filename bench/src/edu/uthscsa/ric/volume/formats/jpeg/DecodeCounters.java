@@ -0,0 +1,36 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+
+/**
+ * Secondary JMH results: decoded megapixels and compressed megabytes, reported per second next to ops/s.
+ *
+ * Allocation per decode comes from the GC profiler (gc.alloc.rate.norm), which the ant bench target enables.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class DecodeCounters {
+
+	public double mpixels;
+	public double mbytes;
+
+
+
+	@Setup(Level.Iteration)
+	public void clean() {
+		mpixels = 0;
+		mbytes = 0;
+	}
+
+
+
+	void count(final Corpus.Entry entry) {
+		mpixels += entry.pixels() / 1e6;
+		mbytes += entry.data.length / 1e6;
+	}
+}
@@ -0,0 +1,81 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * The RowKernels on one row, scalar against the kernels RowKernels.create() selects with the vector property set,
+ * which are the Vector API ones when the JVM runs with --add-modules jdk.incubator.vector (as ant bench does on Java 16
+ * and later).
+ *
+ * narrowBytes   int row to byte output
+ * narrowShorts  int row to short output
+ *
+ * Compare with the whole decode in DecodeBenchmark into short[] or byte[] output, where narrowing is one part of the work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-D" + RowKernels.PROPERTY + "=true")
+public class KernelBenchmark {
+
+	@Param({ "scalar", "selected" })
+	public String kernels;
+
+	@Param({ "512", "4096" })
+	public int width;
+
+	private RowKernels rowKernels;
+	private int[] row;
+	private byte[] bytes;
+	private short[] shorts;
+
+
+
+	@Setup(Level.Trial)
+	public void setup() {
+		rowKernels = "scalar".equals(kernels) ? new RowKernels() : RowKernels.create();
+		System.out.println("kernels: " + rowKernels.getName());
+
+		final Random random = new Random(width);
+		row = new int[width];
+		bytes = new byte[width];
+		shorts = new short[width];
+
+		for (int i = 0; i < width; i++) {
+			row[i] = random.nextInt(0x10000);
+		}
+	}
+
+
+
+	@Benchmark
+	public byte[] narrowBytes() {
+		rowKernels.narrow(row, 0, bytes, 0, width);
+		return bytes;
+	}
+
+
+
+	@Benchmark
+	public short[] narrowShorts() {
+		rowKernels.narrow(row, 0, shorts, 0, width);
+		return shorts;
+	}
+}
@@ -0,0 +1,554 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+
+/**
+ * Minimal baseline lossless JPEG (SOF3) encoder used to produce the benchmark corpus.
+ *
+ * Writes one interleaved scan, or one scan per component, with optimal Huffman tables (one per component), optional
+ * restart intervals measured in whole rows, and follows the prediction rules of ITU-T T.81 H.1.2.1: the first row of the image and of each restart
+ * interval is predicted from the left neighbour, the first column from the sample above.
+ */
+public class LosslessJPEGEncoder {
+
+	private final int precision;
+	private final int selection;
+	private final int restartRows;
+
+
+
+	/**
+	 * @param precision sample precision in bits (2..16)
+	 * @param selection predictor selection value (1..7)
+	 * @param restartRows rows per restart interval, or 0 to omit DRI
+	 */
+	public LosslessJPEGEncoder(final int precision, final int selection, final int restartRows) {
+		if ((precision < 2) || (precision > 16)) {
+			throw new IllegalArgumentException("precision must be 2..16: " + precision);
+		}
+
+		if ((selection < 1) || (selection > 7)) {
+			throw new IllegalArgumentException("selection must be 1..7: " + selection);
+		}
+
+		this.precision = precision;
+		this.selection = selection;
+		this.restartRows = restartRows;
+	}
+
+
+
+	/**
+	 * @param planes one sample plane per component, each width * height samples in row-major order
+	 * @return the complete JPEG stream, SOI through EOI
+	 */
+	public byte[] encode(final int[][] planes, final int width, final int height) {
+		final int[] ones = new int[planes.length];
+		Arrays.fill(ones, 1);
+		return encode(planes, width, height, ones, ones, false);
+	}
+
+
+
+	/**
+	 * Encodes components with sampling factors, either interleaved in one scan of MCUs holding hSamp x vSamp samples of
+	 * each component, or in one scan per component, each with its own DHT and DRI segment. Restart intervals hold
+	 * restartRows MCU rows when interleaved and restartRows lines of the component otherwise.
+	 *
+	 * @param planes per component ceil(width * hSamp / Hmax) x ceil(height * vSamp / Vmax) samples in row-major order
+	 * @param hSamp horizontal sampling factor per component (1..4)
+	 * @param vSamp vertical sampling factor per component (1..4)
+	 * @param separateScans true for one scan per component, false for a single interleaved scan of at most 4
+	 */
+	public byte[] encode(final int[][] planes, final int width, final int height, final int[] hSamp, final int[] vSamp, final boolean separateScans) {
+		final int numComp = planes.length;
+		final boolean interleaved = !separateScans && (numComp > 1); // a single component scan is not interleaved
+		int hMax = 1;
+		int vMax = 1;
+
+		if (interleaved && (numComp > 4)) {
+			throw new IllegalArgumentException("an interleaved scan holds at most 4 components: " + numComp);
+		}
+
+		for (int c = 0; c < numComp; c++) {
+			hMax = Math.max(hMax, hSamp[c]);
+			vMax = Math.max(vMax, vSamp[c]);
+		}
+
+		final int mcusX = (width + hMax - 1) / hMax;
+		final int mcusY = (height + vMax - 1) / vMax;
+		final int[] codedWidth = new int[numComp];
+		final int[] codedHeight = new int[numComp];
+		final int[][] diffs = new int[numComp][];
+		final int[][] codes = new int[numComp][17];
+		final int[][] sizes = new int[numComp][17];
+		final int[][] bits = new int[numComp][];
+		final int[][] vals = new int[numComp][];
+
+		for (int c = 0; c < numComp; c++) {
+			final int planeWidth = ((width * hSamp[c]) + hMax - 1) / hMax;
+			final int planeHeight = ((height * vSamp[c]) + vMax - 1) / vMax;
+			final int[] freq = new int[17];
+
+			if (planes[c].length != (planeWidth * planeHeight)) {
+				throw new IllegalArgumentException("plane " + c + " needs " + planeWidth + "x" + planeHeight + " samples");
+			}
+
+			// an interleaved scan codes whole MCUs, the samples right of and below the plane repeat its edge
+			codedWidth[c] = interleaved ? mcusX * hSamp[c] : planeWidth;
+			codedHeight[c] = interleaved ? mcusY * vSamp[c] : planeHeight;
+			diffs[c] = new int[codedWidth[c] * codedHeight[c]];
+			computeDifferences(pad(planes[c], planeWidth, planeHeight, codedWidth[c], codedHeight[c]), diffs[c], freq, codedWidth[c], codedHeight[c],
+					restartRows * (interleaved ? vSamp[c] : 1));
+
+			final int[] codeSize = optimalCodeSizes(freq);
+			bits[c] = new int[16];
+			vals[c] = sortedSymbols(codeSize, bits[c]);
+			assignCodes(bits[c], vals[c], codes[c], sizes[c]);
+		}
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream((width * height * numComp) + 1024);
+		marker(out, 0xFFD8);
+
+		marker(out, 0xFFC3);
+		short16(out, 8 + (3 * numComp));
+		out.write(precision);
+		short16(out, height);
+		short16(out, width);
+		out.write(numComp);
+		for (int c = 0; c < numComp; c++) {
+			out.write(c + 1);
+			out.write((hSamp[c] << 4) | vSamp[c]);
+			out.write(0);
+		}
+
+		if (!interleaved) {
+			for (int c = 0; c < numComp; c++) {
+				writeTable(out, c & 3, bits[c], vals[c]);
+				writeRestartInterval(out, restartRows * codedWidth[c]);
+				writeScanHeader(out, new int[] { c });
+
+				final BitWriter writer = new BitWriter(out);
+				int restartNum = 0;
+
+				for (int y = 0; y < codedHeight[c]; y++) {
+					if ((restartRows > 0) && (y > 0) && ((y % restartRows) == 0)) {
+						writer.flush();
+						marker(out, 0xFFD0 + (restartNum & 7));
+						restartNum++;
+					}
+
+					for (int x = 0; x < codedWidth[c]; x++) {
+						writeDifference(writer, diffs[c][(y * codedWidth[c]) + x], codes[c], sizes[c]);
+					}
+				}
+
+				writer.flush();
+			}
+		} else {
+			final int[] all = new int[numComp];
+
+			for (int c = 0; c < numComp; c++) {
+				writeTable(out, c, bits[c], vals[c]);
+				all[c] = c;
+			}
+
+			writeRestartInterval(out, restartRows * mcusX);
+			writeScanHeader(out, all);
+
+			final BitWriter writer = new BitWriter(out);
+			int restartNum = 0;
+
+			for (int mcuRow = 0; mcuRow < mcusY; mcuRow++) {
+				if ((restartRows > 0) && (mcuRow > 0) && ((mcuRow % restartRows) == 0)) {
+					writer.flush();
+					marker(out, 0xFFD0 + (restartNum & 7));
+					restartNum++;
+				}
+
+				for (int mcu = 0; mcu < mcusX; mcu++) {
+					for (int c = 0; c < numComp; c++) {
+						for (int v = 0; v < vSamp[c]; v++) {
+							final int row = ((mcuRow * vSamp[c]) + v) * codedWidth[c];
+
+							for (int h = 0; h < hSamp[c]; h++) {
+								writeDifference(writer, diffs[c][row + (mcu * hSamp[c]) + h], codes[c], sizes[c]);
+							}
+						}
+					}
+				}
+			}
+
+			writer.flush();
+		}
+
+		marker(out, 0xFFD9);
+		return out.toByteArray();
+	}
+
+
+
+	private void writeRestartInterval(final ByteArrayOutputStream out, final int samples) {
+		if (restartRows > 0) {
+			marker(out, 0xFFDD);
+			short16(out, 4);
+			short16(out, samples);
+		}
+	}
+
+
+
+	private void writeScanHeader(final ByteArrayOutputStream out, final int[] components) {
+		marker(out, 0xFFDA);
+		short16(out, 6 + (2 * components.length));
+		out.write(components.length);
+		for (final int c : components) {
+			out.write(c + 1);
+			out.write((c & 3) << 4);
+		}
+		out.write(selection);
+		out.write(0);
+		out.write(0);
+	}
+
+
+
+	private static void writeTable(final ByteArrayOutputStream out, final int id, final int[] bits, final int[] vals) {
+		marker(out, 0xFFC4);
+		short16(out, 2 + 1 + 16 + vals.length);
+		out.write(id);
+		for (int i = 0; i < 16; i++) {
+			out.write(bits[i]);
+		}
+		for (final int val : vals) {
+			out.write(val);
+		}
+	}
+
+
+
+	private static void writeDifference(final BitWriter writer, final int diff, final int[] codes, final int[] sizes) {
+		final int ssss = category(diff);
+		writer.write(codes[ssss], sizes[ssss]);
+		if ((ssss > 0) && (ssss < 16)) {
+			writer.write(diff < 0 ? diff - 1 : diff, ssss);
+		}
+	}
+
+
+
+	// Extends a plane to the coded size by repeating its last sample of each row and its last row.
+	private static int[] pad(final int[] plane, final int width, final int height, final int codedWidth, final int codedHeight) {
+		if ((codedWidth == width) && (codedHeight == height)) {
+			return plane;
+		}
+
+		final int[] coded = new int[codedWidth * codedHeight];
+
+		for (int y = 0; y < codedHeight; y++) {
+			final int row = Math.min(y, height - 1) * width;
+
+			for (int x = 0; x < codedWidth; x++) {
+				coded[(y * codedWidth) + x] = plane[row + Math.min(x, width - 1)];
+			}
+		}
+
+		return coded;
+	}
+
+
+
+	/**
+	 * @return the prediction residual of every sample, as the decoder adds it to its prediction
+	 */
+	int[][] differences(final int[][] planes, final int width, final int height) {
+		final int[][] diffs = new int[planes.length][width * height];
+
+		for (int c = 0; c < planes.length; c++) {
+			computeDifferences(planes[c], diffs[c], new int[17], width, height, restartRows);
+		}
+
+		return diffs;
+	}
+
+
+
+	// intervalRows is the number of lines per restart interval, 0 without restart intervals.
+	private void computeDifferences(final int[] plane, final int[] diff, final int[] freq, final int width, final int height, final int intervalRows) {
+		final int initial = 1 << (precision - 1);
+
+		for (int y = 0; y < height; y++) {
+			final boolean firstRow = (y == 0) || ((intervalRows > 0) && ((y % intervalRows) == 0));
+			final int row = y * width;
+
+			for (int x = 0; x < width; x++) {
+				final int px;
+
+				if (firstRow) {
+					px = (x == 0) ? initial : plane[(row + x) - 1];
+				} else if (x == 0) {
+					px = plane[row - width];
+				} else {
+					final int ra = plane[(row + x) - 1];
+					final int rb = plane[(row - width) + x];
+					final int rc = plane[(row - width) + x - 1];
+					px = predict(ra, rb, rc);
+				}
+
+				int d = (plane[row + x] - px) & 0xFFFF;
+				if (d >= 0x8000) {
+					d -= 0x10000;
+				}
+
+				diff[row + x] = d;
+				freq[category(d)]++;
+			}
+		}
+	}
+
+
+
+	private int predict(final int ra, final int rb, final int rc) {
+		switch (selection) {
+			case 2:
+				return rb;
+			case 3:
+				return rc;
+			case 4:
+				return (ra + rb) - rc;
+			case 5:
+				return ra + ((rb - rc) >> 1);
+			case 6:
+				return rb + ((ra - rc) >> 1);
+			case 7:
+				return (ra + rb) >> 1;
+			default:
+				return ra;
+		}
+	}
+
+
+
+	private static int category(final int diff) {
+		if (diff == -32768) {
+			return 16;
+		}
+
+		return 32 - Integer.numberOfLeadingZeros(Math.abs(diff));
+	}
+
+
+
+	// Annex K.2 code length assignment, including the reserved all-ones code point and the 16 bit length limit.
+	private static int[] optimalCodeSizes(final int[] symbolFreq) {
+		final long[] freq = new long[18];
+		final int[] codeSize = new int[18];
+		final int[] others = new int[18];
+
+		for (int i = 0; i < 17; i++) {
+			freq[i] = symbolFreq[i];
+		}
+		freq[17] = 1;
+
+		for (int i = 0; i < 18; i++) {
+			others[i] = -1;
+		}
+
+		while (true) {
+			int c1 = -1;
+			long v = Long.MAX_VALUE;
+			for (int i = 0; i < 18; i++) {
+				if ((freq[i] != 0) && (freq[i] <= v)) {
+					v = freq[i];
+					c1 = i;
+				}
+			}
+
+			int c2 = -1;
+			v = Long.MAX_VALUE;
+			for (int i = 0; i < 18; i++) {
+				if ((freq[i] != 0) && (freq[i] <= v) && (i != c1)) {
+					v = freq[i];
+					c2 = i;
+				}
+			}
+
+			if (c2 < 0) {
+				break;
+			}
+
+			freq[c1] += freq[c2];
+			freq[c2] = 0;
+
+			codeSize[c1]++;
+			while (others[c1] >= 0) {
+				c1 = others[c1];
+				codeSize[c1]++;
+			}
+
+			others[c1] = c2;
+
+			codeSize[c2]++;
+			while (others[c2] >= 0) {
+				c2 = others[c2];
+				codeSize[c2]++;
+			}
+		}
+
+		final int[] bits = new int[33];
+		for (int i = 0; i < 18; i++) {
+			if (codeSize[i] > 0) {
+				bits[codeSize[i]]++;
+			}
+		}
+
+		for (int i = 32; i > 16; i--) {
+			while (bits[i] > 0) {
+				int j = i - 2;
+				while (bits[j] == 0) {
+					j--;
+				}
+
+				bits[i] -= 2;
+				bits[i - 1]++;
+				bits[j + 1] += 2;
+				bits[j]--;
+			}
+		}
+
+		int i = 16;
+		while (bits[i] == 0) {
+			i--;
+		}
+		bits[i]--; // drop the reserved code point
+
+		// re-assign lengths in order of decreasing frequency so the limited length counts are honoured
+		final int[] result = new int[17];
+		final boolean[] used = new boolean[17];
+		int length = 1;
+
+		while (true) {
+			while ((length <= 16) && (bits[length] == 0)) {
+				length++;
+			}
+
+			if (length > 16) {
+				break;
+			}
+
+			int best = -1;
+			for (int s = 0; s < 17; s++) {
+				if (!used[s] && (symbolFreq[s] > 0) && ((best < 0) || (symbolFreq[s] > symbolFreq[best]))) {
+					best = s;
+				}
+			}
+
+			if (best < 0) {
+				break;
+			}
+
+			used[best] = true;
+			result[best] = length;
+			bits[length]--;
+		}
+
+		return result;
+	}
+
+
+
+	private static int[] sortedSymbols(final int[] codeSize, final int[] bits) {
+		int count = 0;
+		for (int s = 0; s < 17; s++) {
+			if (codeSize[s] > 0) {
+				count++;
+			}
+		}
+
+		final int[] vals = new int[count];
+		int k = 0;
+		for (int len = 1; len <= 16; len++) {
+			for (int s = 0; s < 17; s++) {
+				if (codeSize[s] == len) {
+					vals[k++] = s;
+					bits[len - 1]++;
+				}
+			}
+		}
+
+		return vals;
+	}
+
+
+
+	private static void assignCodes(final int[] bits, final int[] vals, final int[] codes, final int[] sizes) {
+		int code = 0;
+		int k = 0;
+
+		for (int len = 1; len <= 16; len++) {
+			for (int i = 0; i < bits[len - 1]; i++) {
+				codes[vals[k]] = code;
+				sizes[vals[k]] = len;
+				code++;
+				k++;
+			}
+			code <<= 1;
+		}
+	}
+
+
+
+	private static void marker(final ByteArrayOutputStream out, final int marker) {
+		short16(out, marker);
+	}
+
+
+
+	private static void short16(final ByteArrayOutputStream out, final int value) {
+		out.write((value >> 8) & 0xFF);
+		out.write(value & 0xFF);
+	}
+
+
+
+	private static final class BitWriter {
+
+		private final ByteArrayOutputStream out;
+		private long bitBuffer;
+		private int bitCount;
+
+
+
+		BitWriter(final ByteArrayOutputStream out) {
+			this.out = out;
+		}
+
+
+
+		void write(final int value, final int length) {
+			bitBuffer = (bitBuffer << length) | (value & ((1L << length) - 1));
+			bitCount += length;
+
+			while (bitCount >= 8) {
+				final int b = (int) (bitBuffer >> (bitCount - 8)) & 0xFF;
+				out.write(b);
+				if (b == 0xFF) {
+					out.write(0);
+				}
+				bitCount -= 8;
+			}
+		}
+
+
+
+		void flush() {
+			if (bitCount > 0) {
+				write(0x7F, 8 - bitCount);
+			}
+			bitBuffer = 0;
+			bitCount = 0;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Single image latency of restart interval streams, decoded on the calling thread (parallelism 0) or on a
+ * ForkJoinPool of the given parallelism.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParallelDecodeBenchmark {
+
+	@Param({ "0", "2", "4", "8" })
+	public int parallelism;
+
+	@Param({ "8", "16" })
+	public int precision;
+
+	@Param({ "1", "3" })
+	public int components;
+
+	@Param({ "1", "8" })
+	public int restartRows;
+
+	@Param({ "4096" })
+	public int size;
+
+	private Corpus.Entry entry;
+	private ForkJoinPool pool;
+
+
+
+	@Setup(Level.Trial)
+	public void setup() {
+		entry = Corpus.create(1, precision, components, restartRows, size, size + (size / 4));
+		pool = parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+	}
+
+
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+
+
+	@Benchmark
+	public int[][] decode(final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(entry.data);
+		decoder.setExecutor(pool);
+
+		final int[][] result = decoder.decode();
+		counters.count(entry);
+		return result;
+	}
+}
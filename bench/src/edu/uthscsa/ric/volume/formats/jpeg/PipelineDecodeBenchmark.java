@@ -0,0 +1,67 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Single image latency of streams without restart markers, decoded on the calling thread or pipelined with a helper
+ * thread that entropy decodes ahead of the reconstruction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineDecodeBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean pipelined;
+
+	@Param({ "8", "16" })
+	public int precision;
+
+	@Param({ "1", "3" })
+	public int components;
+
+	@Param({ "1", "7" })
+	public int selection;
+
+	@Param({ "4096" })
+	public int size;
+
+	private Corpus.Entry entry;
+
+
+
+	@Setup(Level.Trial)
+	public void setup() {
+		entry = Corpus.create(selection, precision, components, 0, size, size + (size / 4));
+	}
+
+
+
+	@Benchmark
+	public int[][] decode(final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(entry.data);
+		decoder.setPipelined(pipelined);
+
+		final int[][] result = decoder.decode();
+		counters.count(entry);
+		return result;
+	}
+}
@@ -0,0 +1,160 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Statistics;
+
+
+/**
+ * Sweeps ConcurrentDecodeBenchmark over a list of thread counts and prints one summary row per concurrency level:
+ * aggregate throughput, scaling efficiency against one thread, allocation rate, GC count and time, and latency
+ * percentiles.
+ *
+ * Arguments: [threads, comma separated, default 1,2,4,... up to 2x cores] [maxSize, default 1024] [jvm args...]
+ *
+ * ant scalability -Dscalability.args="1,8,16,32,64 2048"
+ */
+public final class ScalabilityRunner {
+
+	private ScalabilityRunner() {
+	}
+
+
+
+	public static void main(final String[] args) throws RunnerException {
+		final int[] threadCounts = args.length > 0 ? parseThreads(args[0]) : defaultThreads();
+		final String maxSize = args.length > 1 ? args[1] : "1024";
+		final List<String> jvmArgs = new ArrayList<String>();
+		for (int i = 2; i < args.length; i++) {
+			jvmArgs.add(args[i]);
+		}
+
+		final List<Row> rows = new ArrayList<Row>();
+
+		for (final int threads : threadCounts) {
+			final ChainedOptionsBuilder options = new OptionsBuilder().include(ConcurrentDecodeBenchmark.class.getName() + ".decode")
+					.threads(threads).param("maxSize", maxSize).addProfiler(GCProfiler.class);
+
+			if (!jvmArgs.isEmpty()) {
+				options.jvmArgsAppend(jvmArgs.toArray(new String[jvmArgs.size()]));
+			}
+
+			final Collection<RunResult> results = new Runner(options.build()).run();
+			rows.add(summarize(threads, results));
+		}
+
+		print(System.out, rows);
+	}
+
+
+
+	private static Row summarize(final int threads, final Collection<RunResult> results) {
+		final Row row = new Row(threads);
+
+		for (final RunResult result : results) {
+			final BenchmarkParams params = result.getParams();
+
+			if (params.getMode() == Mode.Throughput) {
+				row.opsPerSecond = result.getPrimaryResult().getScore() * 1000.0;
+				row.mpixels = secondary(result, "mpixels") * 1000.0;
+				row.allocRate = secondary(result, "gc.alloc.rate");
+				row.allocPerOp = secondary(result, "gc.alloc.rate.norm");
+				row.gcCount = secondary(result, "gc.count");
+				row.gcTime = secondary(result, "gc.time");
+			} else if (params.getMode() == Mode.SampleTime) {
+				final Statistics statistics = result.getPrimaryResult().getStatistics();
+				row.p50 = statistics.getPercentile(50.0);
+				row.p99 = statistics.getPercentile(99.0);
+				row.p999 = statistics.getPercentile(99.9);
+			}
+		}
+
+		return row;
+	}
+
+
+
+	private static double secondary(final RunResult result, final String label) {
+		final Result<?> value = result.getSecondaryResults().get(label);
+		return value == null ? Double.NaN : value.getScore();
+	}
+
+
+
+	private static void print(final PrintStream out, final List<Row> rows) {
+		final double single = rows.isEmpty() ? Double.NaN : rows.get(0).opsPerSecond / rows.get(0).threads;
+
+		out.println();
+		out.println(String.format(Locale.ROOT, "%7s %10s %8s %9s %11s %12s %8s %9s %9s %9s %9s", "threads", "ops/s", "scaling", "MPixel/s",
+				"alloc MB/s", "alloc B/op", "gc.count", "gc.ms", "p50 ms", "p99 ms", "p999 ms"));
+
+		for (final Row row : rows) {
+			out.println(String.format(Locale.ROOT, "%7d %10.1f %7.0f%% %9.1f %11.1f %12.0f %8.0f %9.0f %9.3f %9.3f %9.3f", row.threads, row.opsPerSecond,
+					(100.0 * row.opsPerSecond) / (single * row.threads), row.mpixels, row.allocRate, row.allocPerOp, row.gcCount, row.gcTime, row.p50,
+					row.p99, row.p999));
+		}
+	}
+
+
+
+	private static int[] parseThreads(final String list) {
+		final String[] parts = list.split(",");
+		final int[] threads = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			threads[i] = Integer.parseInt(parts[i].trim());
+		}
+		return threads;
+	}
+
+
+
+	private static int[] defaultThreads() {
+		final int max = 2 * Runtime.getRuntime().availableProcessors();
+		final List<Integer> list = new ArrayList<Integer>();
+		for (int threads = 1; threads < max; threads *= 2) {
+			list.add(threads);
+		}
+		list.add(max);
+
+		final int[] threads = new int[list.size()];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = list.get(i);
+		}
+		return threads;
+	}
+
+
+
+	private static final class Row {
+
+		final int threads;
+		double opsPerSecond = Double.NaN;
+		double mpixels = Double.NaN;
+		double allocRate = Double.NaN;
+		double allocPerOp = Double.NaN;
+		double gcCount = Double.NaN;
+		double gcTime = Double.NaN;
+		double p50 = Double.NaN;
+		double p99 = Double.NaN;
+		double p999 = Double.NaN;
+
+
+
+		Row(final int threads) {
+			this.threads = threads;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * The decode pipeline split into stages, each timed on its own against the same corpus entry.
+ *
+ * parseHeaders      SOI through SOS, including DHT/DQT/DRI handling
+ * probeHeaders      JPEGLosslessHeader.probe, SOI through SOS without building Huffman tables
+ * huffmanTableRead  HuffmanTable.read for one DHT segment, whose tables come from HuffmanTableCache after the first call
+ * buildHuffTable    HuffmanTable.buildHuffTable from already parsed code lengths
+ * entropyDecode     BitReader.decodeDifference for every sample, no prediction or output
+ * predict           row reconstruction + output for every row from precomputed residuals, no bit reading
+ *
+ * Entropy decoding and prediction run on streams without restart markers so they stay pure. Their decoder is set up per
+ * invocation, and that setup shows up in gc.alloc.rate.norm.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+
+	@Param({ "1", "4", "7" })
+	public int selection;
+
+	@Param({ "8", "12", "16" })
+	public int precision;
+
+	@Param({ "1", "3" })
+	public int components;
+
+	@Param({ "512", "2048" })
+	public int size;
+
+	private Corpus.Entry entry;
+	private int[][][] residualRows; // [row][component][x]
+	private ByteArrayDataStream dhtStream;
+	private int dhtOffset;
+	private int scanOffset;
+	private final int[][][] huffTab = new int[4][2][];
+	private final int[] builtTable = new int[HuffmanTable.TABLE_SIZE]; // not the shared tables in huffTab
+	private final int[] bits = new int[16];
+	private final int[][] values = new int[16][200];
+
+
+
+	@Setup(Level.Trial)
+	public void setup() {
+		entry = Corpus.create(selection, precision, components, 0, size, size);
+		final int[][] residuals = new LosslessJPEGEncoder(precision, selection, 0).differences(entry.planes, size, size);
+		residualRows = new int[size][components][size];
+		for (int y = 0; y < size; y++) {
+			for (int c = 0; c < components; c++) {
+				System.arraycopy(residuals[c], y * size, residualRows[y][c], 0, size);
+			}
+		}
+
+		dhtOffset = ByteArrayDataStream.findSegment(entry.data, 0xFFC4);
+		dhtStream = new ByteArrayDataStream(entry.data);
+
+		final int sosOffset = ByteArrayDataStream.findSegment(entry.data, 0xFFDA);
+		scanOffset = sosOffset + (((entry.data[sosOffset] & 0xFF) << 8) | (entry.data[sosOffset + 1] & 0xFF));
+
+		int k = dhtOffset + 3;
+		for (int i = 0; i < 16; i++) {
+			bits[i] = entry.data[k++] & 0xFF;
+		}
+
+		for (int i = 0; i < 16; i++) {
+			for (int j = 0; j < bits[i]; j++) {
+				values[i][j] = entry.data[k++] & 0xFF;
+			}
+		}
+	}
+
+
+
+	@State(Scope.Thread)
+	public static class ScanState {
+
+		JPEGLosslessDecoder decoder;
+		BitReader reader;
+
+
+
+		@Setup(Level.Invocation)
+		public void setup(final StageBenchmark benchmark) throws IOException {
+			decoder = new JPEGLosslessDecoder(benchmark.entry.data);
+			decoder.readHeaders();
+			decoder.allocateOutput();
+			reader = new BitReader(ByteBuffer.wrap(benchmark.entry.data));
+		}
+	}
+
+
+
+	@Benchmark
+	public JPEGLosslessDecoder parseHeaders() throws IOException {
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(entry.data);
+		decoder.readHeaders();
+		return decoder;
+	}
+
+
+
+	@Benchmark
+	public JPEGLosslessHeader probeHeaders() throws IOException {
+		return JPEGLosslessHeader.probe(entry.data);
+	}
+
+
+
+	@Benchmark
+	public int huffmanTableRead() throws IOException {
+		dhtStream.seek(dhtOffset);
+		return new HuffmanTable().read(dhtStream, huffTab);
+	}
+
+
+
+	@Benchmark
+	public int[] buildHuffTable() throws IOException {
+		new HuffmanTable().buildHuffTable(builtTable, bits, values);
+		return builtTable;
+	}
+
+
+
+	@Benchmark
+	public int entropyDecode(final ScanState state, final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = state.decoder;
+		final BitReader reader = state.reader;
+		final int samples = size * size;
+		int sum = 0;
+
+		reader.reset(scanOffset);
+
+		for (int i = 0; i < samples; i++) {
+			for (int c = 0; c < components; c++) {
+				sum += reader.decodeDifference(decoder.dcTab[c]);
+			}
+		}
+
+		counters.count(entry);
+		return sum;
+	}
+
+
+
+	@Benchmark
+	public JPEGLosslessDecoder predict(final ScanState state, final DecodeCounters counters) throws IOException {
+		final JPEGLosslessDecoder decoder = state.decoder;
+
+		for (int y = 0; y < size; y++) {
+			decoder.reconstructRow(residualRows[y], size);
+			decoder.nextRow();
+		}
+
+		counters.count(entry);
+		return decoder;
+	}
+}
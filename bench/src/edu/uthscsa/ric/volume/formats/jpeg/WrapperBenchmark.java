@@ -0,0 +1,79 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * JPEGLosslessDecoderWrapper.readImage() end to end, into a new image and into a reused one.
+ *
+ * The format parameter is precision x components.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WrapperBenchmark {
+
+	@Param({ "8x1", "12x1", "16x1", "8x3", "16x3" })
+	public String format;
+
+	@Param({ "1", "7" })
+	public int selection;
+
+	@Param({ "0", "8" })
+	public int restartRows;
+
+	@Param({ "256", "1024", "4096" })
+	public int size;
+
+	private Corpus.Entry entry;
+	private JPEGLosslessDecoderWrapper wrapper;
+	private BufferedImage image;
+
+
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		final int precision = Integer.parseInt(format.substring(0, format.indexOf('x')));
+		final int components = Integer.parseInt(format.substring(format.indexOf('x') + 1));
+
+		entry = Corpus.create(selection, precision, components, restartRows, size, size);
+		wrapper = new JPEGLosslessDecoderWrapper();
+		image = wrapper.readImage(entry.data);
+	}
+
+
+
+	@Benchmark
+	public BufferedImage readImage(final DecodeCounters counters) throws IOException {
+		final BufferedImage result = wrapper.readImage(entry.data);
+		counters.count(entry);
+		return result;
+	}
+
+
+
+	@Benchmark
+	public BufferedImage readImageReuse(final DecodeCounters counters) throws IOException {
+		final BufferedImage result = wrapper.readImage(entry.data, image);
+		counters.count(entry);
+		return result;
+	}
+}
@@ -0,0 +1,252 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the entropy coded data of a scan through a 64 bit accumulator. Refills take up to seven bytes at once and only
+ * look at bytes one by one around 0xFF, where byte stuffing is removed and markers are detected. Once the data ends at
+ * a marker or at the end of the buffer, zero bits are fed instead, so codes are always decoded whole and callers count
+ * samples rather than watch for markers.
+ *
+ * When the data comes from a channel, the buffer is an InputWindow that is refilled whenever fewer than REFILL_BYTES
+ * are left, which covers the longest run of stuffed bytes fill() may consume. Refills stop at a marker, so reading
+ * never waits for bytes past the end of the scan.
+ */
+final class BitReader {
+
+	private static final int FAST_MASK = (1 << HuffmanTable.FAST_BITS) - 1;
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final int REFILL_BYTES = 32;
+
+	private ByteBuffer buffer;
+	private InputWindow input; // non null when reading from a channel
+	private int limit;
+	private int position; // next byte to move into the accumulator
+	private long bits; // the low available bits are unread, most significant first
+	private int available;
+	private int padding; // zero bits fed after the end of the data
+	private boolean ended; // reached a marker or the end of the buffer
+	private int stuffed; // stuffed 0xFF bytes removed since takeStuffed()
+
+
+
+	BitReader(final ByteBuffer buffer) {
+		setBuffer(buffer);
+	}
+
+
+
+	BitReader(final InputWindow input) {
+		setInput(input);
+	}
+
+
+
+	// Switches to another big endian buffer, call reset() before reading.
+	void setBuffer(final ByteBuffer buffer) {
+		this.buffer = buffer;
+		input = null;
+		limit = buffer.limit();
+	}
+
+
+
+	// Switches to a window onto a channel, call reset() before reading.
+	void setInput(final InputWindow input) {
+		this.input = input;
+		buffer = input.getBuffer();
+		limit = buffer.limit();
+	}
+
+
+
+	// Starts reading entropy coded data at the given byte.
+	void reset(final int position) {
+		this.position = position;
+		limit = buffer.limit(); // the window may have been refilled by another reader
+		bits = 0;
+		available = 0;
+		padding = 0;
+		ended = false;
+	}
+
+
+
+	// Reads one Huffman coded difference with the lookup table built by HuffmanTable.buildHuffTable.
+	int decodeDifference(final int table[]) throws IOException {
+		if (available < 32) {
+			fill();
+		}
+
+		final int fast = table[HuffmanTable.FAST_OFFSET + ((int) (bits >>> (available - HuffmanTable.FAST_BITS)) & FAST_MASK)];
+
+		if ((fast & 0xFF) != 0) {
+			available -= fast & 0xFF;
+			return fast >> 8;
+		}
+
+		final int look = (int) (bits >>> (available - 16)) & 0xFFFF;
+		int code = table[look >> 8];
+
+		if ((code & JPEGLosslessDecoder.MSB) != 0) {
+			code = table[((code & 0xFF) << 8) | (look & 0xFF)];
+		}
+
+		available -= code >> 8;
+		final int s = code & 0xFF;
+
+		if (s == 0) {
+			return 0;
+		} else if (s >= 16) {
+			if (s == 16) {
+				return 32768;
+			}
+
+			throw new IOException("ERROR: difference category " + s + " > 16");
+		}
+
+		available -= s;
+		final int value = (int) (bits >>> available) & ((1 << s) - 1);
+		return value < (1 << (s - 1)) ? (value - (1 << s)) + 1 : value;
+	}
+
+
+
+	// True once more bits were consumed than the data held, i.e. the data ended early.
+	boolean isOverrun() {
+		return available < padding;
+	}
+
+
+
+	// Drops the unread bits and returns the marker that follows the data, or -1 at the end of the buffer. Reading
+	// continues right after that marker.
+	int nextMarker() throws IOException {
+		int index = position;
+
+		while (true) {
+			if ((index + 1) >= limit) {
+				if ((input == null) || input.isAtEnd()) {
+					break;
+				}
+
+				index = input.refill(index, 2);
+				limit = buffer.limit();
+				continue;
+			}
+
+			if ((buffer.get(index) & 0xFF) == 0xFF) {
+				final int next = buffer.get(index + 1) & 0xFF;
+
+				if ((next != 0x00) && (next != 0xFF)) {
+					reset(index + 2);
+					return 0xFF00 | next;
+				}
+			}
+
+			index++;
+		}
+
+		reset(limit);
+		return -1;
+	}
+
+
+
+	// Index of the next byte that has not been moved into the accumulator.
+	int getPosition() {
+		return position;
+	}
+
+
+
+	// The number of stuffed 0xFF bytes removed from the data since the last call.
+	int takeStuffed() {
+		final int count = stuffed;
+		stuffed = 0;
+		return count;
+	}
+
+
+
+	private void fill() throws IOException {
+		if ((input != null) && !ended && ((position + REFILL_BYTES) > limit)) {
+			refill();
+		}
+
+		if (!ended && ((position + 8) <= limit)) {
+			final int count = Math.min(7, (64 - available) >> 3);
+			final long word = buffer.getLong(position);
+
+			if ((ffBytes(word) >>> (64 - (count << 3))) == 0) {
+				bits = (bits << (count << 3)) | (word >>> (64 - (count << 3)));
+				available += count << 3;
+				position += count;
+				return;
+			}
+		}
+
+		while (available <= 56) {
+			int b = 0;
+
+			if (!ended) {
+				if (position >= limit) {
+					ended = true;
+				} else if ((b = buffer.get(position) & 0xFF) != 0xFF) {
+					position++;
+				} else if (((position + 1) < limit) && (buffer.get(position + 1) == 0)) { // stuffed 0xFF
+					position += 2;
+					stuffed++;
+				} else { // a marker, left unread for nextMarker()
+					ended = true;
+					b = 0;
+				}
+			}
+
+			if (ended) {
+				padding += 8;
+			}
+
+			bits = (bits << 8) | b;
+			available += 8;
+		}
+	}
+
+
+
+	// Sets the high bit of each 0xFF byte of word. Bytes before a 0xFF byte may be flagged too, so only a zero result
+	// is exact: none of the eight bytes is 0xFF.
+	static long ffBytes(final long word) {
+		final long inverse = ~word;
+		return (inverse - ONES) & ~inverse & HIGHS;
+	}
+
+
+
+	// Grows the window a read at a time until REFILL_BYTES are available or a marker ends the data sooner.
+	private void refill() throws IOException {
+		while (((position + REFILL_BYTES) > limit) && !input.isAtEnd() && !markerAhead()) {
+			position = input.refill(position, (limit - position) + 1);
+			limit = buffer.limit();
+		}
+	}
+
+
+
+	private boolean markerAhead() {
+		for (int i = position; (i + 1) < limit; i++) {
+			if ((buffer.get(i) & 0xFF) == 0xFF) {
+				final int next = buffer.get(i + 1) & 0xFF;
+
+				if ((next != 0x00) && (next != 0xFF)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,322 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+/**
+ * Counts and times what a JPEGLosslessDecoder does, e.g. to find the images or vendors whose streams fall off its fast
+ * paths. Pass one to JPEGLosslessDecoder.setStatistics() or JPEGLosslessDecoderWrapper.setStatistics(); every decode
+ * adds to it until reset(). Without one nothing is counted or timed.
+ *
+ * The lookups are derived from the decoded differences and the code lengths of their tables: a difference takes one
+ * lookup in the fused table when its code and extra bits fit in 12 bits, otherwise one in the first layer of HuffTab
+ * for codes of up to 8 bits, or a second in the second layer for longer codes. Times are in nanoseconds. Entropy
+ * decoding, prediction and output are summed over the threads that decode restart intervals, scans or a pipeline, so
+ * they can add up to more than the decode took, and timing them costs three System.nanoTime() calls per row. Not
+ * thread safe, use one per decoder and add() them up.
+ *
+ * <pre>
+ * final DecodeStatistics statistics = new DecodeStatistics();
+ * decoder.setStatistics(statistics);
+ * decoder.decode();
+ * log(statistics); // or statistics.getSecondLevelLookups() etc.
+ * </pre>
+ */
+public final class DecodeStatistics {
+
+	long decodes;
+	long bytes;
+	long pixels;
+	long symbols;
+	final long lookups[] = new long[3]; // by HuffmanTable.lookupLevel: fused table, first layer, second layer
+	final long categories[] = new long[17]; // differences by SSSS category
+	long restartIntervals;
+	long stuffedBytes;
+	long headerNanos;
+	long tableNanos;
+	long entropyNanos;
+	long predictionNanos;
+	long outputNanos;
+	private final int rowCategories[] = new int[17]; // of the differences count() is counting
+	private long mark; // System.nanoTime() at the end of the last stage timed
+
+
+
+	public DecodeStatistics() {
+	}
+
+
+
+	/**
+	 * Sets every count and time back to 0.
+	 */
+	public void reset() {
+		decodes = 0;
+		bytes = 0;
+		pixels = 0;
+		symbols = 0;
+		restartIntervals = 0;
+		stuffedBytes = 0;
+		headerNanos = 0;
+		tableNanos = 0;
+		entropyNanos = 0;
+		predictionNanos = 0;
+		outputNanos = 0;
+
+		for (int i = 0; i < lookups.length; i++) {
+			lookups[i] = 0;
+		}
+
+		for (int i = 0; i < categories.length; i++) {
+			categories[i] = 0;
+		}
+	}
+
+
+
+	/**
+	 * Adds the counts and times of other to these, e.g. of the decoders of several threads.
+	 */
+	public void add(final DecodeStatistics other) {
+		decodes += other.decodes;
+		bytes += other.bytes;
+		pixels += other.pixels;
+		symbols += other.symbols;
+		restartIntervals += other.restartIntervals;
+		stuffedBytes += other.stuffedBytes;
+		headerNanos += other.headerNanos;
+		tableNanos += other.tableNanos;
+		entropyNanos += other.entropyNanos;
+		predictionNanos += other.predictionNanos;
+		outputNanos += other.outputNanos;
+
+		for (int i = 0; i < lookups.length; i++) {
+			lookups[i] += other.lookups[i];
+		}
+
+		for (int i = 0; i < categories.length; i++) {
+			categories[i] += other.categories[i];
+		}
+	}
+
+
+
+	// Counts the first count differences of d, decoded with table.
+	void count(final int d[], final int count, final int table[]) {
+		for (int i = 0; i < count; i++) {
+			rowCategories[32 - Integer.numberOfLeadingZeros(Math.abs(d[i]))]++; // 0 for 0, 16 for 32768
+		}
+
+		for (int s = 0; s < rowCategories.length; s++) {
+			if (rowCategories[s] != 0) {
+				categories[s] += rowCategories[s];
+				lookups[HuffmanTable.lookupLevel(table, s)] += rowCategories[s];
+				rowCategories[s] = 0;
+			}
+		}
+
+		symbols += count;
+	}
+
+
+
+	// Starts timing, the time until the next lap is charged to the stage that lap ends.
+	void start() {
+		mark = System.nanoTime();
+	}
+
+
+
+	private long lap() {
+		final long now = System.nanoTime();
+		final long elapsed = now - mark;
+		mark = now;
+		return elapsed;
+	}
+
+
+
+	void lapHeader() {
+		headerNanos += lap();
+	}
+
+
+
+	void lapTables() {
+		tableNanos += lap();
+	}
+
+
+
+	void lapEntropy() {
+		entropyNanos += lap();
+	}
+
+
+
+	void lapPrediction() {
+		predictionNanos += lap();
+	}
+
+
+
+	void lapOutput() {
+		outputNanos += lap();
+	}
+
+
+
+	/**
+	 * Images decoded.
+	 */
+	public long getDecodes() {
+		return decodes;
+	}
+
+
+
+	/**
+	 * Compressed bytes consumed, from the SOI to past the end of the last scan decoded. The bit reader may have read
+	 * up to 8 bytes past the end of a region that ends early.
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+
+
+	/**
+	 * Pixels of the images decoded, as many as the output holds: the region's, or the reduced size.
+	 */
+	public long getPixels() {
+		return pixels;
+	}
+
+
+
+	/**
+	 * Huffman coded differences decoded, one per sample decoded including those left of, right of and above a region.
+	 */
+	public long getSymbols() {
+		return symbols;
+	}
+
+
+
+	/**
+	 * Differences decoded with a single lookup in the fused table of code and extra bits.
+	 */
+	public long getFastLookups() {
+		return lookups[0];
+	}
+
+
+
+	/**
+	 * Differences whose code was found in the first layer of HuffTab, codes of up to 8 bits whose extra bits do not fit
+	 * in the fused table.
+	 */
+	public long getFirstLevelLookups() {
+		return lookups[1];
+	}
+
+
+
+	/**
+	 * Differences whose code of 9 to 16 bits took a second lookup in the second layer of HuffTab.
+	 */
+	public long getSecondLevelLookups() {
+		return lookups[2];
+	}
+
+
+
+	/**
+	 * Differences of SSSS category ssss, i.e. with ssss significant bits, 16 for the difference 32768.
+	 *
+	 * @throws IllegalArgumentException if ssss is outside 0 to 16
+	 */
+	public long getCategoryCount(final int ssss) {
+		if ((ssss < 0) || (ssss >= categories.length)) {
+			throw new IllegalArgumentException("SSSS category " + ssss + ", expected 0 to 16");
+		}
+
+		return categories[ssss];
+	}
+
+
+
+	/**
+	 * Restart intervals decoded in scans with a restart interval, none are counted for scans without.
+	 */
+	public long getRestartIntervals() {
+		return restartIntervals;
+	}
+
+
+
+	/**
+	 * 0x00 bytes stuffed after a 0xFF byte of entropy coded data, which the bit reader takes out byte by byte.
+	 */
+	public long getStuffedBytes() {
+		return stuffedBytes;
+	}
+
+
+
+	/**
+	 * Time spent parsing markers and segments other than DHT.
+	 */
+	public long getHeaderNanos() {
+		return headerNanos;
+	}
+
+
+
+	/**
+	 * Time spent reading DHT segments and building or looking up their tables.
+	 */
+	public long getTableNanos() {
+		return tableNanos;
+	}
+
+
+
+	/**
+	 * Time spent Huffman decoding the differences.
+	 */
+	public long getEntropyNanos() {
+		return entropyNanos;
+	}
+
+
+
+	/**
+	 * Time spent applying the predictor to the differences.
+	 */
+	public long getPredictionNanos() {
+		return predictionNanos;
+	}
+
+
+
+	/**
+	 * Time spent converting reconstructed rows into the output, including DisplayLut mapping, reduction and RowSink calls.
+	 */
+	public long getOutputNanos() {
+		return outputNanos;
+	}
+
+
+
+	@Override
+	public String toString() {
+		final StringBuilder categoryCounts = new StringBuilder();
+
+		for (int i = 0; i < categories.length; i++) {
+			categoryCounts.append(i == 0 ? "" : " ").append(categories[i]);
+		}
+
+		return decodes + " decodes, " + bytes + " bytes, " + pixels + " pixels, " + symbols + " symbols (" + lookups[0] + " fast, " + lookups[1]
+				+ " first level, " + lookups[2] + " second level), SSSS " + categoryCounts + ", " + restartIntervals + " restart intervals, "
+				+ stuffedBytes + " stuffed bytes, header " + (headerNanos / 1000) + " us, tables " + (tableNanos / 1000) + " us, entropy "
+				+ (entropyNanos / 1000) + " us, prediction " + (predictionNanos / 1000) + " us, output " + (outputNanos / 1000) + " us";
+	}
+}
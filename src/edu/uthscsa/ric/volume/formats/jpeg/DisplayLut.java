@@ -0,0 +1,123 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+/**
+ * Maps stored samples to 8 bit display values, e.g. the DICOM modality rescale followed by a VOI window. The mapping is
+ * tabulated once for every stored value, so JPEGLosslessDecoder.setDisplayLut() can apply it with one lookup per sample
+ * while the rows are reconstructed, writing display pixels straight into byte[] or packed int output instead of a full
+ * resolution intermediate that a second pass converts. Only the low bitsStored bits of a sample are looked at, read as
+ * two's complement for a signed pixel representation. Immutable.
+ *
+ * <pre>
+ * decoder.setDisplayLut(DisplayLut.window(12, true, 1, -1024, 40, 400)); // CT soft tissue
+ * decoder.decode(pixels, 0, 0, JPEGLosslessDecoder.OUTPUT_PLANAR);
+ * </pre>
+ */
+public final class DisplayLut {
+
+	final byte table[]; // display value of each stored value, indexed by its low bitsStored bits
+	final int mask;
+	private final int bitsStored;
+	private final boolean signed;
+
+	private DisplayLut(final int bitsStored, final boolean signed) {
+		if ((bitsStored < 1) || (bitsStored > 16)) {
+			throw new IllegalArgumentException(bitsStored + " bits stored, expected 1 to 16");
+		}
+
+		this.bitsStored = bitsStored;
+		this.signed = signed;
+		table = new byte[1 << bitsStored];
+		mask = table.length - 1;
+	}
+
+
+
+	/**
+	 * The linear modality rescale, slope * stored value + intercept, followed by the linear VOI window function of DICOM
+	 * PS3.3 C.11.2.1.2: values up to center - 0.5 - (width - 1) / 2 display as 0, values above center - 0.5 + (width - 1)
+	 * / 2 as 255 and values in between on a straight line.
+	 *
+	 * @param bitsStored bits of a stored value, 1 to 16
+	 * @param signed whether stored values are two's complement (pixel representation 1)
+	 * @throws IllegalArgumentException if bitsStored is out of range or width is below 1
+	 */
+	public static DisplayLut window(final int bitsStored, final boolean signed, final double slope, final double intercept, final double center,
+			final double width) {
+		if (!(width >= 1)) {
+			throw new IllegalArgumentException("window width " + width + " is below 1");
+		}
+
+		final DisplayLut lut = new DisplayLut(bitsStored, signed);
+		final double low = (center - 0.5) - ((width - 1) / 2);
+		final double high = (center - 0.5) + ((width - 1) / 2);
+
+		for (int i = 0; i < lut.table.length; i++) {
+			final double value = (lut.storedValue(i) * slope) + intercept;
+
+			if (value <= low) {
+				lut.table[i] = 0;
+			} else if (value > high) {
+				lut.table[i] = (byte) 255;
+			} else {
+				lut.table[i] = (byte) Math.round((((value - (center - 0.5)) / (width - 1)) + 0.5) * 255);
+			}
+		}
+
+		return lut;
+	}
+
+
+
+	/**
+	 * A caller supplied table, e.g. a modality or VOI LUT already combined into display values: stored value v displays
+	 * as display[v - firstMapped], stored values outside the table as its first or last entry.
+	 *
+	 * @param bitsStored bits of a stored value, 1 to 16
+	 * @param signed whether stored values are two's complement (pixel representation 1)
+	 * @param display 8 bit display values, read as unsigned
+	 * @param firstMapped stored value display[0] belongs to
+	 * @throws IllegalArgumentException if bitsStored is out of range or display is empty
+	 */
+	public static DisplayLut table(final int bitsStored, final boolean signed, final byte[] display, final int firstMapped) {
+		if (display.length == 0) {
+			throw new IllegalArgumentException("empty display table");
+		}
+
+		final DisplayLut lut = new DisplayLut(bitsStored, signed);
+
+		for (int i = 0; i < lut.table.length; i++) {
+			final int entry = lut.storedValue(i) - firstMapped;
+			lut.table[i] = display[entry < 0 ? 0 : entry >= display.length ? display.length - 1 : entry];
+		}
+
+		return lut;
+	}
+
+
+
+	// The stored value of the low bitsStored bits of a sample.
+	private int storedValue(final int bits) {
+		return signed && (bits > (mask >> 1)) ? bits - table.length : bits;
+	}
+
+
+
+	/**
+	 * The display value of a sample, 0 to 255.
+	 */
+	public int map(final int sample) {
+		return table[sample & mask] & 0xFF;
+	}
+
+
+
+	public int getBitsStored() {
+		return bitsStored;
+	}
+
+
+
+	public boolean isSigned() {
+		return signed;
+	}
+}
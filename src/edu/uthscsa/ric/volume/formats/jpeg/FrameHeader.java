@@ -35,7 +35,8 @@ import java.io.IOException;
 
 public class FrameHeader {
 
-	private ComponentSpec components[]; // Components 
+	private final ComponentSpec components[] = new ComponentSpec[256]; // Components, indexed by component identifier 
+	private final int componentIds[] = new int[256]; // Component identifiers, in frame order
 	private int dimX; // Number of samples per line
 	private int dimY; // Number of lines
 	private int numComp; // Number of component in the frame
@@ -43,8 +44,50 @@ public class FrameHeader {
 
 
 
+	// A copy of the components of this frame, null for identifiers it does not use. The specs themselves are reused
+	// by the next read(), so they are copied too.
 	public ComponentSpec[] getComponents() {
-		return components.clone();
+		final ComponentSpec copy[] = new ComponentSpec[components.length];
+
+		for (int c = 0; c < components.length; c++) {
+			final ComponentSpec component = getComponent(c);
+
+			if (component != null) {
+				copy[c] = new ComponentSpec();
+				copy[c].hSamp = component.hSamp;
+				copy[c].vSamp = component.vSamp;
+				copy[c].quantTableSel = component.quantTableSel;
+			}
+		}
+
+		return copy;
+	}
+
+
+
+	// The component with identifier c, or null if the frame has none. Not a copy, for the decoder's own use.
+	ComponentSpec getComponent(final int c) {
+		return (c < components.length) && (components[c] != null) && (components[c].hSamp != 0) ? components[c] : null;
+	}
+
+
+
+	// The identifier of the index-th component in the order of the frame header, which is the order of the output.
+	int getComponentId(final int index) {
+		return componentIds[index];
+	}
+
+
+
+	// Position of the component with identifier c in the frame header, or -1.
+	int indexOf(final int c) {
+		for (int i = 0; i < numComp; i++) {
+			if (componentIds[i] == c) {
+				return i;
+			}
+		}
+
+		return -1;
 	}
 
 
@@ -91,8 +134,17 @@ public class FrameHeader {
 		numComp = data.get8();
 		count++;
 
-		//components = new ComponentSpec[numComp]; // some image exceed this range...
-		components = new ComponentSpec[256]; // setting to 256 -- not sure what it should be.
+		if (length != (8 + (3 * numComp))) { // checked before the specs, which may run past a truncated stream
+			throw new IOException("ERROR: frame format error [Lf!=8+3*Nf]");
+		}
+
+		for (int i = 0; i < components.length; i++) { // specs are reused from the previous frame
+			if (components[i] != null) {
+				components[i].hSamp = 0;
+				components[i].vSamp = 0;
+				components[i].quantTableSel = 0;
+			}
+		}
 
 		for (int i = 1; i <= numComp; i++) {
 			if (count > length) {
@@ -113,10 +165,16 @@ public class FrameHeader {
 				components[c] = new ComponentSpec();
 			}
 
+			componentIds[i - 1] = c;
+
 			components[c].hSamp = temp >> 4;
 			components[c].vSamp = temp & 0x0F;
 			components[c].quantTableSel = data.get8();
 			count++;
+
+			if ((components[c].hSamp < 1) || (components[c].hSamp > 4) || (components[c].vSamp < 1) || (components[c].vSamp > 4)) {
+				throw new IOException("ERROR: frame format error [Hi,Vi not in 1~4]");
+			}
 		}
 
 		if (count != length) {
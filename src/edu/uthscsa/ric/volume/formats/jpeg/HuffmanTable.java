@@ -35,38 +35,37 @@ import java.io.IOException;
 
 public class HuffmanTable {
 
-	private final int l[][][] = new int[4][2][16];
-	private final int th[] = new int[4]; // 1: this table is presented
-	private final int v[][][][] = new int[4][2][16][200]; // tables
-	private final int[][] tc = new int[4][2]; // 1: this table is presented
+	private final HuffmanTableCache.Key key = new HuffmanTableCache.Key(16 + 256); // reused for every lookup
+	private final int own[][][] = new int[4][2][]; // tables not shared (yet), reused for the next stream
+	private final int bits[] = new int[16];
+	private final int values[][] = new int[16][];
 
 	public static final int MSB = 0x80000000;
 
+	static final int FAST_BITS = 12; // peek width of the fused difference table
+	static final int FAST_OFFSET = JPEGLosslessDecoder.MAX_HUFFMAN_SUBTREE * 256; // fused table follows the two layers
+	static final int LENGTH_OFFSET = FAST_OFFSET + (1 << FAST_BITS); // code length of each SSSS category follows it
+	static final int TABLE_SIZE = LENGTH_OFFSET + 17;
 
 
 	public HuffmanTable() {
-		tc[0][0] = 0;
-		tc[1][0] = 0;
-		tc[2][0] = 0;
-		tc[3][0] = 0;
-		tc[0][1] = 0;
-		tc[1][1] = 0;
-		tc[2][1] = 0;
-		tc[3][1] = 0;
-		th[0] = 0;
-		th[1] = 0;
-		th[2] = 0;
-		th[3] = 0;
 	}
 
 
 
+	//	Points HuffTab[t][c] at the shared compiled table of each definition in the DHT segment, see HuffmanTableCache.
+	//	The tables are read only, so the slots can be handed on to other decoders, e.g. for abbreviated streams.
 	protected int read(final DataStream data, final int[][][] HuffTab) throws IOException {
+		final byte definition[] = key.definition;
 		int count = 0;
 		final int length = data.get16();
 		count += 2;
 
 		while (count < length) {
+			if ((count + 17) > length) { // Tc,Th and the 16 counts
+				throw new IOException("ERROR: Huffman table format error [count>Lh]");
+			}
+
 			final int temp = data.get8();
 			count++;
 			final int t = temp & 0x0F;
@@ -75,42 +74,78 @@ public class HuffmanTable {
 			}
 
 			final int c = temp >> 4;
-			if (c > 2) {
+			if (c > 1) {
 				throw new IOException("ERROR: Huffman table [Table class > 2 ]");
 			}
 
-			th[t] = 1;
-			tc[t][c] = 1;
+			int values = 0;
 
 			for (int i = 0; i < 16; i++) {
-				l[t][c][i] = data.get8();
+				definition[i] = (byte) data.get8();
+				values += definition[i] & 0xFF;
 				count++;
 			}
 
-			for (int i = 0; i < 16; i++) {
-				for (int j = 0; j < l[t][c][i]; j++) {
-					if (count > length) {
-						throw new IOException("ERROR: Huffman table format error [count>Lh]");
+			if ((count + values) > length) {
+				throw new IOException("ERROR: Huffman table format error [count>Lh]");
+			}
+
+			if (values > 256) {
+				throw new IOException("ERROR: Huffman table format error [more than 256 values]");
+			}
+
+			for (int i = 16; i < (16 + values); i++) {
+				definition[i] = (byte) data.get8();
+				count++;
+			}
+
+			key.update(16 + values);
+			int table[] = HuffmanTableCache.get(key);
+
+			if (table == null) {
+				if (HuffmanTableCache.admit(key)) {
+					table = new int[TABLE_SIZE];
+					compile(definition, table);
+					table = HuffmanTableCache.put(key, table);
+				} else {
+					if (own[t][c] == null) {
+						own[t][c] = new int[TABLE_SIZE];
 					}
-					v[t][c][i][j] = data.get8();
-					count++;
+
+					table = own[t][c];
+					compile(definition, table);
 				}
 			}
+
+			HuffTab[t][c] = table;
 		}
 
 		if (count != length) {
 			throw new IOException("ERROR: Huffman table format error [count!=Lf]");
 		}
 
-		for (int i = 0; i < 4; i++) {
-			for (int j = 0; j < 2; j++) {
-				if (tc[i][j] != 0) {
-					buildHuffTable(HuffTab[i][j], l[i][j], v[i][j]);
-				}
+		return 1;
+	}
+
+
+
+	//	Builds tab from a definition as stored in a DHT segment: 16 code length counts followed by the values.
+	private void compile(final byte definition[], final int tab[]) throws IOException {
+		int k = 16;
+
+		for (int i = 0; i < 16; i++) {
+			bits[i] = definition[i] & 0xFF;
+
+			if ((values[i] == null) || (values[i].length < bits[i])) {
+				values[i] = new int[Math.max(bits[i], 16)];
+			}
+
+			for (int j = 0; j < bits[i]; j++) {
+				values[i][j] = definition[k++] & 0xFF;
 			}
 		}
 
-		return 1;
+		buildHuffTable(tab, bits, values);
 	}
 
 
@@ -121,8 +156,9 @@ public class HuffmanTable {
 	//	            L[i]    # of codewords which length is i
 	//	            V[i][j] Huffman Value (length=i)
 	//	Effect:
-	//	    build up HuffTab[t][c] using L and V.
-	private void buildHuffTable(final int tab[], final int L[], final int V[][]) throws IOException {
+	//	    build up HuffTab[t][c] using L and V, followed by the fused difference table (see buildFastTable) and the
+	//	    code length of each category.
+	void buildHuffTable(final int tab[], final int L[], final int V[][]) throws IOException {
 		int currentTable, temp;
 		int k;
 		temp = 256;
@@ -146,6 +182,10 @@ public class HuffmanTable {
 
 		for (int i = 8; i < 16; i++) { // i+1 is Code length
 			for (int j = 0; j < L[i]; j++) {
+				if (currentTable >= JPEGLosslessDecoder.MAX_HUFFMAN_SUBTREE) {
+					throw new IOException("ERROR: Huffman table error(3)!");
+				}
+
 				for (int n = 0; n < (temp >> (i - 7)); n++) {
 					tab[(currentTable * 256) + k] = V[i][j] | ((i + 1) << 8);
 					k++;
@@ -159,5 +199,85 @@ public class HuffmanTable {
 				}
 			}
 		}
+
+		buildFastTable(tab, L, V);
+		buildLengths(tab, L, V);
+	}
+
+
+
+	//	Code length of each SSSS category at tab[LENGTH_OFFSET + s], 0 for categories without a code. Only the
+	//	statistics look at them, see lookupLevel.
+	private void buildLengths(final int tab[], final int L[], final int V[][]) {
+		for (int s = 0; s <= 16; s++) {
+			tab[LENGTH_OFFSET + s] = 0;
+		}
+
+		for (int i = 0; i < 16; i++) { // i+1 is Code length
+			for (int j = 0; j < L[i]; j++) {
+				if (V[i][j] <= 16) {
+					tab[LENGTH_OFFSET + V[i][j]] = i + 1;
+				}
+			}
+		}
+	}
+
+
+
+	//	How BitReader.decodeDifference finds a difference of category s in tab: 0 in the fused table, when the code and
+	//	its extra bits fit FAST_BITS, 1 in the first layer for codes of up to 8 bits, 2 through the second layer.
+	static int lookupLevel(final int tab[], final int s) {
+		final int length = tab[LENGTH_OFFSET + s];
+
+		if ((length <= FAST_BITS) && ((s <= (FAST_BITS - length)) || (s == 16))) {
+			return 0;
+		}
+
+		return length <= 8 ? 1 : 2;
+	}
+
+
+
+	//	Fused table at tab[FAST_OFFSET], indexed by the next FAST_BITS bits of the scan. When the Huffman code and the
+	//	SSSS extra bits that follow it both fit in the window, the entry is (difference << 8) | (total bit length),
+	//	so a whole difference takes one lookup. Otherwise the entry is 0 and the two layers above are used.
+	private void buildFastTable(final int tab[], final int L[], final int V[][]) throws IOException {
+		int code = 0;
+
+		for (int k = FAST_OFFSET; k < TABLE_SIZE; k++) {
+			tab[k] = 0;
+		}
+
+		for (int i = 0; i < FAST_BITS; i++, code <<= 1) { // i+1 is Code length
+			final int spare = FAST_BITS - (i + 1);
+
+			for (int j = 0; j < L[i]; j++, code++) {
+				final int s = V[i][j];
+				final int first = code << spare;
+
+				if ((first + (1 << spare)) > (1 << FAST_BITS)) {
+					throw new IOException("ERROR: Huffman table error(2)!");
+				}
+
+				if ((s > spare) && (s != 16)) {
+					continue;
+				}
+
+				for (int n = 0; n < (1 << spare); n++) {
+					final int difference;
+
+					if (s == 0) {
+						difference = 0;
+					} else if (s == 16) {
+						difference = 32768;
+					} else {
+						final int bits = n >> (spare - s);
+						difference = bits < (1 << (s - 1)) ? (bits - (1 << s)) + 1 : bits;
+					}
+
+					tab[FAST_OFFSET + first + n] = (difference << 8) | ((i + 1) + (s == 16 ? 0 : s));
+				}
+			}
+		}
 	}
 }
@@ -0,0 +1,176 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process wide cache of compiled Huffman decode tables, keyed by the code lengths and values of a DHT table
+ * definition. Series from one modality and the frames of a multi-frame object keep using the same few tables, so
+ * decoders share the compiled arrays instead of building their own. The tables handed out must not be modified.
+ *
+ * Many encoders optimize the tables of every image, and such one-off tables would only push the shared ones out. A
+ * table is therefore admitted on its second sighting; the first time, the decoder compiles it into a table of its own
+ * that it reuses for the next stream. The least recently used table is evicted once the cache is full.
+ */
+final class HuffmanTableCache {
+
+	private static final int MAX_TABLES = 64; // a compiled table takes HuffmanTable.TABLE_SIZE ints
+
+	private static final Map<Key, int[]> TABLES = new LinkedHashMap<Key, int[]>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, int[]> eldest) {
+			return size() > MAX_TABLES;
+		}
+	};
+
+	private static final ReentrantLock LOCK = new ReentrantLock(); // not a monitor, so virtual threads are not pinned
+
+	private static final int SEEN[] = new int[4 * MAX_TABLES]; // hashes of recently seen definitions, guarded by LOCK
+	private static int seenNext;
+
+
+
+	private HuffmanTableCache() {
+	}
+
+
+
+	// The shared table compiled from key, or null if there is none.
+	static int[] get(final Key key) {
+		LOCK.lock();
+		try {
+			return TABLES.get(key);
+		} finally {
+			LOCK.unlock();
+		}
+	}
+
+
+
+	// True if a definition like key was seen recently and should be shared, records it otherwise.
+	static boolean admit(final Key key) {
+		LOCK.lock();
+		try {
+			for (int i = 0; i < SEEN.length; i++) {
+				if (SEEN[i] == key.hash) {
+					return true;
+				}
+			}
+
+			SEEN[seenNext] = key.hash;
+			seenNext = (seenNext + 1) % SEEN.length;
+			return false;
+		} finally {
+			LOCK.unlock();
+		}
+	}
+
+
+
+	// Shares table, compiled from key. Returns the table to use, which is another one if a decoder raced us to it.
+	static int[] put(final Key key, final int[] table) {
+		LOCK.lock();
+		try {
+			final int[] raced = TABLES.get(key);
+
+			if (raced != null) {
+				return raced;
+			}
+
+			TABLES.put(key.copy(), table);
+			return table;
+		} finally {
+			LOCK.unlock();
+		}
+	}
+
+
+
+	static void clear() {
+		LOCK.lock();
+		try {
+			TABLES.clear();
+			Arrays.fill(SEEN, 0);
+		} finally {
+			LOCK.unlock();
+		}
+	}
+
+
+
+	// A table definition. Lookups go through a reusable key that is filled in place, only stored keys are copies.
+	static final class Key {
+
+		final byte[] definition;
+		private int length;
+		private int hash;
+
+
+
+		Key(final int capacity) {
+			definition = new byte[capacity];
+		}
+
+
+
+		// Call after writing length bytes into definition.
+		void update(final int length) {
+			int h = 1;
+
+			for (int i = 0; i < length; i++) {
+				h = (31 * h) + definition[i];
+			}
+
+			this.length = length;
+			hash = h;
+		}
+
+
+
+		private Key copy() {
+			final Key key = new Key(length);
+			System.arraycopy(definition, 0, key.definition, 0, length);
+			key.length = length;
+			key.hash = hash;
+			return key;
+		}
+
+
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+
+			final Key key = (Key) other;
+
+			if ((key.hash != hash) || (key.length != length)) {
+				return false;
+			}
+
+			for (int i = 0; i < length; i++) {
+				if (key.definition[i] != definition[i]) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+}
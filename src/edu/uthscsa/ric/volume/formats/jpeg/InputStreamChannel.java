@@ -0,0 +1,72 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads an InputStream straight into the array of a heap buffer. Unlike Channels.newChannel() it neither copies
+ * through a buffer of its own nor holds a monitor while the stream blocks, which would pin a virtual thread to its
+ * carrier. Not thread-safe, a decoder reads from one thread at a time.
+ */
+final class InputStreamChannel implements ReadableByteChannel {
+
+	private final InputStream in;
+	private byte[] transfer; // for buffers without an array
+	private boolean open = true;
+
+
+
+	InputStreamChannel(final InputStream in) {
+		this.in = in;
+	}
+
+
+
+	@Override
+	public int read(final ByteBuffer destination) throws IOException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+
+		if (destination.hasArray()) {
+			final int count = in.read(destination.array(), destination.arrayOffset() + destination.position(), destination.remaining());
+
+			if (count > 0) {
+				destination.position(destination.position() + count);
+			}
+
+			return count;
+		}
+
+		if (transfer == null) {
+			transfer = new byte[8192];
+		}
+
+		final int count = in.read(transfer, 0, Math.min(transfer.length, destination.remaining()));
+
+		if (count > 0) {
+			destination.put(transfer, 0, count);
+		}
+
+		return count;
+	}
+
+
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+
+
+	@Override
+	public void close() throws IOException {
+		open = false;
+		in.close();
+	}
+}
@@ -0,0 +1,86 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Bounded window onto a stream read from a channel. The decoder parses headers and the bit reader decodes scans out of
+ * the same buffer by index; when they run short, refill() drops the bytes before their index, moves the rest to the
+ * front and reads more behind it. Only one of them reads at a time and each takes over the other's index, so both
+ * stay valid across refills. A whole marker segment always fits, so header parsers never need to refill.
+ */
+final class InputWindow {
+
+	static final int CAPACITY = 1 << 17; // the longest marker segment is 64 KB
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(CAPACITY);
+	private ReadableByteChannel channel;
+	private boolean atEnd;
+	private long offset; // of the first byte of the window in the stream
+
+
+
+	InputWindow(final ReadableByteChannel channel) {
+		reset(channel);
+	}
+
+
+
+	void reset(final ReadableByteChannel channel) {
+		this.channel = channel;
+		atEnd = false;
+		offset = 0;
+		buffer.clear();
+		buffer.limit(0);
+	}
+
+
+
+	// The window. Its limit is the end of the bytes read so far, its position is not used.
+	ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+
+
+	// True once the channel has no more bytes, the window then holds the rest of the stream.
+	boolean isAtEnd() {
+		return atEnd;
+	}
+
+
+
+	// Position in the stream of the byte at index 0 of the window.
+	long getOffset() {
+		return offset;
+	}
+
+
+
+	// Makes count bytes from index on available, unless the stream ends first, and returns the new index of the byte
+	// at index. Bytes before index are dropped. Blocks until the channel delivers.
+	int refill(final int index, final int count) throws IOException {
+		final int kept = buffer.limit() - index;
+
+		if ((kept >= count) || atEnd) {
+			return index;
+		}
+
+		System.arraycopy(buffer.array(), index, buffer.array(), 0, kept);
+		offset += index;
+		buffer.limit(buffer.capacity());
+		buffer.position(kept);
+
+		while (!atEnd && (buffer.position() < count)) {
+			if (channel.read(buffer) < 0) {
+				atEnd = true;
+			}
+		}
+
+		buffer.limit(buffer.position());
+		buffer.position(0);
+		return 0;
+	}
+}
@@ -0,0 +1,310 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decodes many frames, e.g. the frames of a study being prefetched, on a caller supplied executor while bounding the
+ * memory their output takes. Each frame is probed when it is submitted and its decoded size estimated from its frame
+ * header; a decode only starts while the estimates of the decodes running and of the results not yet taken stay
+ * within the budget. A frame larger than the whole budget starts once nothing else is held. Results are taken in
+ * submission order or as they complete.
+ *
+ * <pre>
+ * final JPEGLosslessBatchDecoder batch = new JPEGLosslessBatchDecoder(executor, 512L &lt;&lt; 20, true);
+ * for (final byte[] frame : frames) {
+ * 	batch.submit(frame);
+ * }
+ * JPEGLosslessBatchDecoder.Result result;
+ * while ((result = batch.take()) != null) {
+ * 	store(result.getIndex(), result.get());
+ * }
+ * </pre>
+ *
+ * submit() never blocks, frames wait in the batch until the budget allows, so the caller needs to keep the
+ * compressed frames but not their output in memory. Thread-safe.
+ */
+public class JPEGLosslessBatchDecoder {
+
+	private final Executor executor;
+	private final long budget;
+	private final boolean ordered;
+	private final JPEGLosslessDecoderPool decoders;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition completed = lock.newCondition();
+	private final LinkedList<Task> waiting = new LinkedList<Task>(); // submitted, not started for lack of budget
+	private final LinkedList<Result> done = new LinkedList<Result>(); // in completion order
+	private final Map<Integer, Result> doneByIndex = new HashMap<Integer, Result>(); // in submission order
+	private long reserved; // estimated output bytes of the decodes running and of the results not taken
+	private int submitted;
+	private int taken;
+
+
+
+	/**
+	 * @param executor runs the decodes, its threads bound how many run at once
+	 * @param budget estimated output bytes that may be held at once, by decodes running and results not yet taken
+	 * @param ordered true to take results in submission order, false to take them as they complete
+	 */
+	public JPEGLosslessBatchDecoder(final Executor executor, final long budget, final boolean ordered) {
+		if (budget < 1) {
+			throw new IllegalArgumentException("budget " + budget + " < 1");
+		}
+
+		this.executor = executor;
+		this.budget = budget;
+		this.ordered = ordered;
+		decoders = new JPEGLosslessDecoderPool(Runtime.getRuntime().availableProcessors());
+	}
+
+
+
+	/**
+	 * Queues a frame for decoding. data must not be modified until its result is taken.
+	 *
+	 * @return the index of the frame, counting submissions from 0
+	 * @throws IOException if the frame headers cannot be read, the frame is then not queued
+	 */
+	public int submit(final ByteBuffer data) throws IOException {
+		final JPEGLosslessHeader header = JPEGLosslessHeader.probe(data);
+		final int index;
+		final List<Task> start;
+
+		lock.lock();
+		try {
+			index = submitted++;
+			waiting.add(new Task(index, data.duplicate(), header));
+			start = startWaiting();
+		} finally {
+			lock.unlock();
+		}
+
+		execute(start);
+		return index;
+	}
+
+
+
+	public int submit(final byte[] data) throws IOException {
+		return submit(ByteBuffer.wrap(data));
+	}
+
+
+
+	/**
+	 * Waits for the next result, the next in submission order or the next to complete. Taking a result releases its
+	 * share of the budget.
+	 *
+	 * @return the result, or null when all frames submitted so far have been taken
+	 */
+	public Result take() throws InterruptedException {
+		final Result result;
+		final List<Task> start;
+
+		lock.lock();
+		try {
+			if (taken == submitted) {
+				return null;
+			}
+
+			while (ordered ? !doneByIndex.containsKey(Integer.valueOf(taken)) : done.isEmpty()) {
+				completed.await();
+			}
+
+			result = ordered ? doneByIndex.remove(Integer.valueOf(taken)) : done.removeFirst();
+			taken++;
+			reserved -= result.bytes;
+			start = startWaiting();
+		} finally {
+			lock.unlock();
+		}
+
+		execute(start);
+		return result;
+	}
+
+
+
+	/**
+	 * @return estimated output bytes held now, by decodes running and results not yet taken
+	 */
+	public long getReserved() {
+		lock.lock();
+		try {
+			return reserved;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+
+	// Reserves the budget for the waiting frames that fit, in submission order, and returns them to be started once
+	// the lock is released, so an executor running tasks on the calling thread does not decode under the lock.
+	private List<Task> startWaiting() {
+		List<Task> start = null;
+
+		while (!waiting.isEmpty() && ((reserved == 0) || ((reserved + waiting.getFirst().bytes) <= budget))) {
+			final Task task = waiting.removeFirst();
+			reserved += task.bytes;
+
+			if (start == null) {
+				start = new ArrayList<Task>();
+			}
+
+			start.add(task);
+		}
+
+		return start;
+	}
+
+
+
+	private void execute(final List<Task> start) {
+		if (start != null) {
+			for (final Task task : start) {
+				try {
+					executor.execute(task);
+				} catch (final RuntimeException e) { // rejected, e.g. after a shutdown
+					complete(new Result(task.index, task.header, task.bytes, null, e));
+				}
+			}
+		}
+	}
+
+
+
+	private void complete(final Result result) {
+		lock.lock();
+		try {
+			if (ordered) {
+				doneByIndex.put(Integer.valueOf(result.index), result);
+			} else {
+				done.add(result);
+			}
+
+			completed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+
+	private final class Task implements Runnable {
+
+		private final int index;
+		private final ByteBuffer data;
+		private final JPEGLosslessHeader header;
+		private final long bytes;
+
+
+
+		Task(final int index, final ByteBuffer data, final JPEGLosslessHeader header) {
+			this.index = index;
+			this.data = data;
+			this.header = header;
+			bytes = estimate(header);
+		}
+
+
+
+		@Override
+		public void run() {
+			int[][] output = null;
+			Throwable failure = null;
+
+			try {
+				final JPEGLosslessDecoder decoder = decoders.acquire(data);
+				try {
+					output = decoder.decode();
+				} finally {
+					decoders.release(decoder);
+				}
+			} catch (final Throwable e) {
+				failure = e;
+			}
+
+			complete(new Result(index, header, bytes, output, failure));
+		}
+	}
+
+
+
+	// decode() returns one int per sample, of each component at its own size.
+	private static long estimate(final JPEGLosslessHeader header) {
+		long samples = 0;
+
+		for (int c = 0; c < header.getNumComponents(); c++) {
+			samples += (long) header.getComponentDimX(c) * header.getComponentDimY(c);
+		}
+
+		return samples * 4;
+	}
+
+
+
+	/**
+	 * The outcome of decoding one frame.
+	 */
+	public static final class Result {
+
+		private final int index;
+		private final JPEGLosslessHeader header;
+		private final long bytes;
+		private final int[][] output;
+		private final Throwable failure;
+
+
+
+		Result(final int index, final JPEGLosslessHeader header, final long bytes, final int[][] output, final Throwable failure) {
+			this.index = index;
+			this.header = header;
+			this.bytes = bytes;
+			this.output = output;
+			this.failure = failure;
+		}
+
+
+
+		public int getIndex() {
+			return index;
+		}
+
+
+
+		public JPEGLosslessHeader getHeader() {
+			return header;
+		}
+
+
+
+		/**
+		 * @return the decoded samples, as JPEGLosslessDecoder.decode() returns them
+		 * @throws IOException if the frame could not be decoded
+		 */
+		public int[][] get() throws IOException {
+			if (failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			} else if (failure != null) {
+				throw new IOException("could not decode frame " + index + ": " + failure);
+			}
+
+			return output;
+		}
+	}
+}
@@ -31,41 +31,80 @@
 package edu.uthscsa.ric.volume.formats.jpeg;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 
 public class JPEGLosslessDecoder implements DataStream {
 
-	private final ByteBuffer buffer;
+	private ByteBuffer buffer;
+	private InputWindow input; // non null when reading from a channel, buffer is then its window
+	private InputWindow window; // kept for the next channel
+	private int streamStart; // index of the SOI in buffer
+	private RestartIndex restartIndex;
 	private final FrameHeader frame;
 	private final HuffmanTable huffTable;
 	private final QuantizationTable quantTable;
 	private final ScanHeader scan;
-	private final int HuffTab[][][] = new int[4][2][MAX_HUFFMAN_SUBTREE * 256];
-	private final int IDCT_Source[] = new int[64];
-	private final int nBlock[] = new int[10]; // number of blocks in the i-th Comp in a scan
-	private final int[] acTab[] = new int[10][]; // ac HuffTab for the i-th Comp in a scan
-	private final int[] dcTab[] = new int[10][]; // dc HuffTab for the i-th Comp in a scan
-	private final int[] qTab[] = new int[10][]; // quantization table for the i-th Comp in a scan
-
-	private boolean restarting;
+	private final BitReader reader;
+	private final int HuffTab[][][];
+	private final int frameComp[]; // frame component index of the i-th Comp in a scan, which output it goes to
+	private final int hSamp[], vSamp[]; // sampling factors of the i-th Comp in a scan, used when sampled
+	final int[] dcTab[]; // dc HuffTab for the i-th Comp in a scan
+
 	private int dataBufferIndex;
-	private int marker;
-	private int markerIndex;
 	private int numComp;
 	private int restartInterval;
+	private int restartRow; // first row of the current restart interval, rows above it are not used for prediction
 	private int selection;
 	private int xDim, yDim;
-	private int xLoc;
 	private int yLoc;
 	private int mask;
-	private int[] outputData;
-	private int[] outputRedData;
-	private int[] outputGreenData;
-	private int[] outputBlueData;
+	private int componentDimX[], componentDimY[]; // samples per line and lines of each frame component
+	private int maxHSamp, maxVSamp; // largest sampling factors of the frame
+	private boolean fullScan; // the first scan holds every component of the frame at full resolution
+	private boolean sampled; // the scan interleaves components with more than one sample per MCU
+	private int regionX, regionY, regionWidth, regionHeight; // requested by setRegion, a width of 0 for the whole image
+	private int outputX, outputY, outputWidth, outputHeight; // the part of this image that is written to the output
+	private int reduceWidth, reduceHeight; // requested by setOutputSize, a width of 0 for the size of the region
+	private int scaledWidth, scaledHeight; // size of the output of a full scan, smaller than the region's when reduced
+	private int binColumn[]; // output column of each column of the region, when reduced
+	private int binWidth[]; // columns of the region summed into each output column
+	private long binSums[]; // sums of the output row being reduced, scaledWidth per component
+	private int binRow[][]; // the reduced output row, per component
+	private int binY, binRows; // output row being reduced, and the rows summed into binSums so far
+	private int[][] currentRow; // row being reconstructed, per component
+	private int[][] previousRow; // row above, per component
+	private int[][] differences; // entropy decoded differences of the current row, per component
+	private byte[][] byteTargets; // per component views of a single output buffer, reused between decodes
+	private short[][] shortTargets;
+	private int[][] intTargets;
+	private byte[][] byteOutput;
+	private short[][] shortOutput;
+	private int[][] intOutput;
+	private int[] outputOffset;
+	private int[] outputStride;
+	private int outputPixelStride;
+	private int outputLayout;
+	private RowSink sink; // receives the rows instead of the output buffers when set
+	private int sinkRow[][]; // the region's columns of the current row, for a sink when the region starts right of 0
+	private DisplayLut displayLut; // maps the samples written to byte[] and packed output when set
+	private DecodeStatistics statistics; // counts and times the decodes when set
+	private ExecutorService executor;
+	private boolean pipelined;
 
-	private static final int IDCT_P[] = { 0, 5, 40, 16, 45, 2, 7, 42, 21, 56, 8, 61, 18, 47, 1, 4, 41, 23, 58, 13, 32, 24, 37, 10, 63, 17, 44, 3, 6, 43, 20,
-			57, 15, 34, 29, 48, 53, 26, 39, 9, 60, 19, 46, 22, 59, 12, 33, 31, 50, 55, 25, 36, 11, 62, 14, 35, 28, 49, 52, 27, 38, 30, 51, 54 };
 	private static final int TABLE[] = { 0, 1, 5, 6, 14, 15, 27, 28, 2, 4, 7, 13, 16, 26, 29, 42, 3, 8, 12, 17, 25, 30, 41, 43, 9, 11, 18, 24, 31, 40, 44, 53,
 			10, 19, 23, 32, 39, 45, 52, 54, 20, 22, 33, 38, 46, 51, 55, 60, 21, 34, 37, 47, 50, 56, 59, 61, 35, 36, 48, 49, 57, 58, 62, 63 };
 
@@ -74,696 +113,2268 @@ public class JPEGLosslessDecoder implements DataStream {
 	public static final int MAX_HUFFMAN_SUBTREE = 50;
 	public static final int MSB = 0x80000000;
 
+	public static final int OUTPUT_PLANAR = 0; // one plane per component, stride * height samples apart
+	public static final int OUTPUT_INTERLEAVED_RGB = 1; // samples of a pixel side by side in component order
+	public static final int OUTPUT_INTERLEAVED_BGR = 2; // samples of a pixel side by side in reverse component order
+	public static final int OUTPUT_PACKED_RGB = 3; // one int per pixel, 0x00RRGGBB, at most 8 bit samples
+	public static final int OUTPUT_PACKED_ARGB = 4; // one int per pixel, 0xFFRRGGBB, at most 8 bit samples
+	public static final int OUTPUT_PACKED_BGR = 5; // one int per pixel, 0x00BBGGRR, at most 8 bit samples
+
+	private static final int PIPELINE_ROWS = 8; // rows of differences the entropy thread may run ahead
+	private static final int PIPELINE_MIN_PIXELS = 1 << 16; // smaller images decode faster than a thread starts
+	private static final RowKernels KERNELS = RowKernels.create(); // narrowing to short/byte output, scalar or Vector API
+	private static final ByteBuffer EMPTY = ByteBuffer.wrap(new byte[0]);
+
+
+
+	/**
+	 * Creates a decoder without input, for reuse through reset(), e.g. in a JPEGLosslessDecoderPool.
+	 */
+	public JPEGLosslessDecoder() {
+		this(EMPTY);
+	}
+
 
 
 	public JPEGLosslessDecoder(final byte[] data) {
-		buffer = ByteBuffer.wrap(data);
+		this(ByteBuffer.wrap(data));
+	}
+
+
+
+	/**
+	 * Decodes the stream from the position to the limit of data, which can be a heap, direct or memory mapped buffer,
+	 * or a slice of one, in either byte order. The buffer is not copied, and its position and limit are left as they
+	 * are.
+	 */
+	public JPEGLosslessDecoder(final ByteBuffer data) {
 		frame = new FrameHeader();
 		scan = new ScanHeader();
 		quantTable = new QuantizationTable();
 		huffTable = new HuffmanTable();
+		reader = new BitReader(EMPTY);
+		HuffTab = new int[4][2][]; // shared read only tables, see HuffmanTableCache
+		frameComp = new int[10];
+		hSamp = new int[10];
+		vSamp = new int[10];
+		dcTab = new int[10][];
+		reset(data);
 	}
 
 
 
-	public int[][] decode() throws IOException {
-		int current, scanNum = 0;
-		final int pred[] = new int[10];
-		int[][] outputRef = null;
+	/**
+	 * Decodes size bytes of a file from position on, e.g. one frame of a multi-frame object, by memory mapping them
+	 * instead of reading them into the heap.
+	 */
+	public JPEGLosslessDecoder(final FileChannel file, final long position, final long size) throws IOException {
+		this(file.map(FileChannel.MapMode.READ_ONLY, position, size));
+	}
 
-		xLoc = 0;
-		yLoc = 0;
-		current = get16();
 
-		if (current != 0xFFD8) { // SOI
-			throw new IOException("Not a JPEG file");
-		}
 
-		current = get16();
+	/**
+	 * Decodes a stream as it is read, holding a window of 128 KB of it rather than the whole stream. The window reads
+	 * ahead, so bytes that follow the image may be consumed. The stream is not closed.
+	 */
+	public JPEGLosslessDecoder(final InputStream in) {
+		this(new InputStreamChannel(in));
+	}
 
-		while (((current >> 4) != 0x0FFC) || (current == 0xFFC4)) { // SOF 0~15
-			switch (current) {
-				case 0xFFC4: // DHT
-					huffTable.read(this, HuffTab);
-					break;
-				case 0xFFCC: // DAC
-					throw new IOException("Program doesn't support arithmetic coding. (format throw new IOException)");
-				case 0xFFDB:
-					quantTable.read(this, TABLE);
-					break;
-				case 0xFFDD:
-					restartInterval = readNumber();
-					break;
-				case 0xFFE0:
-				case 0xFFE1:
-				case 0xFFE2:
-				case 0xFFE3:
-				case 0xFFE4:
-				case 0xFFE5:
-				case 0xFFE6:
-				case 0xFFE7:
-				case 0xFFE8:
-				case 0xFFE9:
-				case 0xFFEA:
-				case 0xFFEB:
-				case 0xFFEC:
-				case 0xFFED:
-				case 0xFFEE:
-				case 0xFFEF:
-					readApp();
-					break;
-				case 0xFFFE:
-					readComment();
-					break;
-				default:
-					if ((current >> 8) != 0xFF) {
-						throw new IOException("ERROR: format throw new IOException! (decode)");
-					}
-			}
 
-			current = get16();
-		}
 
-		if ((current < 0xFFC0) || (current > 0xFFC7)) {
-			throw new IOException("ERROR: could not handle arithmetic code!");
-		}
+	/**
+	 * Like JPEGLosslessDecoder(InputStream), for a blocking channel.
+	 */
+	public JPEGLosslessDecoder(final ReadableByteChannel channel) {
+		this();
+		reset(channel);
+	}
 
-		frame.read(this);
-		current = get16();
-
-		do {
-			while (current != 0x0FFDA) { //SOS
-				switch (current) {
-					case 0xFFC4: //DHT
-						huffTable.read(this, HuffTab);
-						break;
-					case 0xFFCC: //DAC
-						throw new IOException("Program doesn't support arithmetic coding. (format throw new IOException)");
-					case 0xFFDB:
-						quantTable.read(this, TABLE);
-						break;
-					case 0xFFDD:
-						restartInterval = readNumber();
-						break;
-					case 0xFFE0:
-					case 0xFFE1:
-					case 0xFFE2:
-					case 0xFFE3:
-					case 0xFFE4:
-					case 0xFFE5:
-					case 0xFFE6:
-					case 0xFFE7:
-					case 0xFFE8:
-					case 0xFFE9:
-					case 0xFFEA:
-					case 0xFFEB:
-					case 0xFFEC:
-					case 0xFFED:
-					case 0xFFEE:
-					case 0xFFEF:
-						readApp();
-						break;
-					case 0xFFFE:
-						readComment();
-						break;
-					default:
-						if ((current >> 8) != 0xFF) {
-							throw new IOException("ERROR: format throw new IOException! (Parser.decode)");
-						}
-				}
 
-				current = get16();
-			}
 
-			final int precision = frame.getPrecision();
+	// Decodes restart intervals or the current scan of the parent, sharing its tables and output but not its position.
+	private JPEGLosslessDecoder(final JPEGLosslessDecoder parent) {
+		buffer = parent.buffer;
+		frame = parent.frame;
+		scan = parent.scan;
+		quantTable = parent.quantTable;
+		huffTable = parent.huffTable;
+		reader = parent.input != null ? new BitReader(parent.input) : new BitReader(buffer);
+		HuffTab = parent.HuffTab;
+		frameComp = parent.frameComp.clone(); // the parent moves on to the next scan
+		hSamp = parent.hSamp.clone();
+		vSamp = parent.vSamp.clone();
+		dcTab = parent.dcTab.clone();
+
+		dataBufferIndex = parent.dataBufferIndex;
+		numComp = parent.numComp;
+		restartInterval = parent.restartInterval;
+		selection = parent.selection;
+		xDim = parent.xDim;
+		yDim = parent.yDim;
+		mask = parent.mask;
+		componentDimX = parent.componentDimX;
+		componentDimY = parent.componentDimY;
+		maxHSamp = parent.maxHSamp;
+		maxVSamp = parent.maxVSamp;
+		fullScan = parent.fullScan;
+		sampled = parent.sampled;
+		outputX = parent.outputX;
+		outputY = parent.outputY;
+		outputWidth = parent.outputWidth;
+		outputHeight = parent.outputHeight;
+		scaledWidth = parent.scaledWidth;
+		scaledHeight = parent.scaledHeight;
+		byteOutput = parent.byteOutput;
+		shortOutput = parent.shortOutput;
+		intOutput = parent.intOutput;
+		outputOffset = parent.outputOffset;
+		outputStride = parent.outputStride;
+		outputPixelStride = parent.outputPixelStride;
+		outputLayout = parent.outputLayout;
+		displayLut = parent.displayLut;
+		statistics = parent.statistics != null ? new DecodeStatistics() : null; // added to the parent's when done
+		currentRow = new int[numComp][xDim];
+		previousRow = new int[numComp][xDim];
+		differences = new int[numComp][xDim];
+	}
 
-			if (precision == 8) {
-				mask = 0xFF;
-			} else {
-				mask = 0xFFFF;
-			}
 
-			final ComponentSpec[] components = frame.getComponents();
 
-			scan.read(this);
-			numComp = scan.getNumComponents();
-			selection = scan.getSelection();
+	/**
+	 * Decodes the restart intervals of a scan in parallel on the given executor, e.g. a ForkJoinPool, when the stream
+	 * has a DRI segment whose interval is a whole number of rows. Streams without restart markers are decoded on the
+	 * calling thread, as are streams read from a channel, whose intervals are not known before they are read. The
+	 * entropy stage of a pipelined decode, see setPipelined(), runs on it too. Pass null to always decode on the
+	 * calling thread.
+	 */
+	public void setExecutor(final ExecutorService executor) {
+		this.executor = executor;
+	}
 
-			final ScanComponent[] scanComps = scan.components;
-			final int[][] quantTables = quantTable.quantTables;
 
-			for (int i = 0; i < numComp; i++) {
-				final int compN = scanComps[i].getScanCompSel();
-				qTab[i] = quantTables[components[compN].quantTableSel];
-				nBlock[i] = components[compN].vSamp * components[compN].hSamp;
-				dcTab[i] = HuffTab[scanComps[i].getDcTabSel()][0];
-				acTab[i] = HuffTab[scanComps[i].getAcTabSel()][1];
-			}
 
-			xDim = frame.getDimX();
-			yDim = frame.getDimY();
+	/**
+	 * Decodes streams without restart markers on two threads: a helper thread entropy decodes the differences of the
+	 * next rows while the calling thread applies the predictor and writes the output. The helper is a task on the
+	 * executor of setExecutor() if one is set, otherwise a new thread per scan. If the executor does not start the task
+	 * within about a millisecond, e.g. because its threads are busy, the calling thread decodes the scan alone. Images
+	 * of fewer than 65536 pixels are always decoded on the calling thread.
+	 */
+	public void setPipelined(final boolean pipelined) {
+		this.pipelined = pipelined;
+	}
 
-			outputRef = new int[numComp][];
 
-			if (numComp == 1) {
-				outputData = new int[xDim * yDim];
-				outputRef[0] = outputData;
-			} else {
-				outputRedData = new int[xDim * yDim]; // not a good use of memory, but I had trouble packing bytes into int.  some values exceeded 255.
-				outputGreenData = new int[xDim * yDim];
-				outputBlueData = new int[xDim * yDim];
 
-				outputRef[0] = outputRedData;
-				outputRef[1] = outputGreenData;
-				outputRef[2] = outputBlueData;
-			}
+	/**
+	 * Decodes only a rectangle of the image, e.g. the visible part of a large radiograph or the top rows for a preview.
+	 * The output then holds width x height samples per component, offsets and strides apply to it as they do to the
+	 * whole image, and a RowSink receives only the rows of the region, y and the samples counted from its top left
+	 * corner. Decoding stops once the last row of the region is done, samples right of it are not reconstructed, and
+	 * when the stream has restart markers the intervals above the region are skipped without decoding them. Pass a
+	 * width or height of 0 to decode the whole image again.
+	 *
+	 * @throws IllegalArgumentException on a negative argument, or when decoding an image the region does not fit
+	 */
+	public void setRegion(final int x, final int y, final int width, final int height) {
+		if ((x < 0) || (y < 0) || (width < 0) || (height < 0)) {
+			throw new IllegalArgumentException("region " + x + "," + y + " " + width + "x" + height + " is negative");
+		}
 
-			scanNum++;
+		regionX = x;
+		regionY = y;
+		regionWidth = width;
+		regionHeight = height;
+	}
 
-			while (true) { // Decode one scan
-				final int temp[] = new int[1]; // to store remainder bits
-				final int index[] = new int[1];
-				temp[0] = 0;
-				index[0] = 0;
 
-				for (int i = 0; i < 10; i++) {
-					pred[i] = (1 << (precision - 1));
-				}
 
-				if (restartInterval == 0) {
-					current = decode(pred, temp, index);
+	/**
+	 * Reduces the image, or the region set with setRegion(), to width x height samples per component while decoding,
+	 * e.g. for thumbnails: each output sample is the rounded mean of the box of samples that maps onto it, so a size that
+	 * divides the image by an integer factor bins factor x factor samples, any other size bins boxes of two sizes. The
+	 * output is sized and addressed like an image of width x height, and a RowSink receives the reduced rows, y counting
+	 * them. Only the two rows the predictor needs are held at full resolution. Restart intervals are then decoded on
+	 * the calling thread. With a signed DisplayLut the samples are averaged as signed values. Pass a width or height of
+	 * 0 to decode at full size again.
+	 *
+	 * @throws IllegalArgumentException on a negative argument, or when decoding an image smaller than width x height or
+	 *             whose components are not at full resolution in a single scan
+	 */
+	public void setOutputSize(final int width, final int height) {
+		if ((width < 0) || (height < 0)) {
+			throw new IllegalArgumentException("output size " + width + "x" + height + " is negative");
+		}
 
-					while ((current == 0) && ((xLoc < xDim) && (yLoc < yDim))) {
-						output(pred);
-						current = decode(pred, temp, index);
-					}
+		reduceWidth = width;
+		reduceHeight = height;
+	}
 
-					break; //current=MARKER
-				}
 
-				for (int mcuNum = 0; mcuNum < restartInterval; mcuNum++) {
-					restarting = (mcuNum == 0);
-					current = decode(pred, temp, index);
-					output(pred);
 
-					if (current != 0) {
-						break;
-					}
-				}
+	/**
+	 * Maps every sample written to a byte[] output or a packed int layout through lut as its row is reconstructed, e.g.
+	 * rescale and window level to 8 bit display pixels, instead of narrowing it. Images of more than 8 bits then decode
+	 * into byte[] and packed output as well. int[] and short[] outputs and a RowSink still receive the samples. Pass
+	 * null to narrow again.
+	 */
+	public void setDisplayLut(final DisplayLut lut) {
+		displayLut = lut;
+	}
 
-				if (current == 0) {
-					if (markerIndex != 0) {
-						current = (0xFF00 | marker);
-						markerIndex = 0;
-					} else {
-						current = get16();
-					}
-				}
 
-				if ((current >= RESTART_MARKER_BEGIN) && (current <= RESTART_MARKER_END)) {
-					//empty
-				} else {
-					break; //current=MARKER
+
+	/**
+	 * Adds what each decode does to statistics: bytes, pixels, symbols and how they were looked up, restart intervals,
+	 * stuffed bytes, and the time spent in each stage. Rows are then decoded by a loop that counts and times each row,
+	 * without statistics by one that does neither. Pass null to stop collecting.
+	 */
+	public void setStatistics(final DecodeStatistics statistics) {
+		this.statistics = statistics;
+	}
+
+
+
+	/**
+	 * Takes where the restart intervals start from an index built for this stream, so a region set with setRegion()
+	 * is decoded from the interval holding its first row without scanning for the markers of the intervals above it.
+	 * Ignored for streams read from a channel. Pass null to scan again.
+	 */
+	public void setRestartIndex(final RestartIndex index) {
+		restartIndex = index;
+	}
+
+
+
+	/**
+	 * Scans the stream for its restart intervals, for decoding bands of it later without scanning again.
+	 *
+	 * @throws IOException if the stream has no restart intervals of whole rows, or is read from a channel
+	 */
+	public RestartIndex buildRestartIndex() throws IOException {
+		readHeaders();
+		return indexIntervals();
+	}
+
+
+
+	/**
+	 * Uses the Huffman tables of another stream for an abbreviated stream, which omits the DHT segments and relies on
+	 * tables defined earlier. The other stream can be a tables-only stream (SOI, DHT..., EOI) or an earlier frame of
+	 * the same series; its tables up to the first scan are used. Tables defined by this stream itself take precedence.
+	 * Call before decoding.
+	 */
+	public void setDefaultTables(final byte[] tables) throws IOException {
+		final JPEGLosslessDecoder source = new JPEGLosslessDecoder(tables);
+		source.readTables();
+
+		for (int i = 0; i < HuffTab.length; i++) {
+			for (int j = 0; j < HuffTab[i].length; j++) {
+				if (source.HuffTab[i][j] != null) {
+					HuffTab[i][j] = source.HuffTab[i][j];
 				}
 			}
+		}
+	}
 
-			if ((current == 0xFFDC) && (scanNum == 1)) { //DNL
-				readNumber();
-				current = get16();
-			}
-		} while ((current != 0xFFD9) && ((xLoc < xDim) && (yLoc < yDim)) && (scanNum == 0));
 
-		return outputRef;
+
+	/**
+	 * Starts over on a new stream, keeping the tables and row buffers allocated for the previous one. Huffman tables of
+	 * the previous stream are forgotten, call setDefaultTables again for abbreviated streams. Decoding into caller
+	 * supplied output on the calling thread allocates nothing once the decoder has seen an image at least as wide with
+	 * at least as many components, apart from the ByteBuffer wrapping data here.
+	 */
+	public void reset(final byte[] data) {
+		reset(ByteBuffer.wrap(data));
 	}
 
 
 
-	@Override
-	public final int get16() {
-		final int value = (buffer.getShort(dataBufferIndex) & 0xFFFF);
-		dataBufferIndex += 2;
-		return value;
+	/**
+	 * Like reset(byte[]), for any buffer JPEGLosslessDecoder(ByteBuffer) takes.
+	 */
+	public void reset(final ByteBuffer data) {
+		buffer = data.order() == ByteOrder.BIG_ENDIAN ? data : data.duplicate().order(ByteOrder.BIG_ENDIAN);
+		input = null;
+		reader.setBuffer(buffer);
+		dataBufferIndex = data.position();
+		streamStart = dataBufferIndex;
+		resetStream();
 	}
 
 
 
-	@Override
-	public final int get8() {
-		return buffer.get(dataBufferIndex++) & 0xFF;
+	/**
+	 * Like reset(byte[]), memory mapping size bytes of a file from position on.
+	 */
+	public void reset(final FileChannel file, final long position, final long size) throws IOException {
+		reset(file.map(FileChannel.MapMode.READ_ONLY, position, size));
 	}
 
 
 
-	private int decode(final int prev[], final int temp[], final int index[]) throws IOException {
-		if (numComp == 1) {
-			return decodeSingle(prev, temp, index);
-		} else if (numComp == 3) {
-			return decodeRGB(prev, temp, index);
+	/**
+	 * Like reset(byte[]), reading the stream from a blocking channel as it is decoded.
+	 */
+	public void reset(final ReadableByteChannel channel) {
+		if (window == null) {
+			window = new InputWindow(channel);
 		} else {
-			return -1;
+			window.reset(channel);
 		}
+
+		input = window;
+		buffer = input.getBuffer();
+		reader.setInput(input);
+		dataBufferIndex = 0;
+		streamStart = 0;
+		resetStream();
 	}
 
 
 
-	private int decodeSingle(final int prev[], final int temp[], final int index[]) throws IOException {
-		//		At the beginning of the first line and
-		//		at the beginning of each restart interval the prediction value of 2P – 1 is used, where P is the input precision.
-		if (restarting) {
-			restarting = false;
-			prev[0] = (1 << (frame.getPrecision() - 1));
-		} else {
-			switch (selection) {
-				case 2:
-					prev[0] = getPreviousY(outputData);
-					break;
-				case 3:
-					prev[0] = getPreviousXY(outputData);
-					break;
-				case 4:
-					prev[0] = (getPreviousX(outputData) + getPreviousY(outputData)) - getPreviousXY(outputData);
-					break;
-				case 5:
-					prev[0] = getPreviousX(outputData) + ((getPreviousY(outputData) - getPreviousXY(outputData)) >> 1);
-					break;
-				case 6:
-					prev[0] = getPreviousY(outputData) + ((getPreviousX(outputData) - getPreviousXY(outputData)) >> 1);
-					break;
-				case 7:
-					prev[0] = (int) (((long) getPreviousX(outputData) + getPreviousY(outputData)) / 2);
-					break;
-				default:
-					prev[0] = getPreviousX(outputData);
-					break;
-			}
-		}
+	private void resetStream() {
+		restartInterval = 0;
 
-		for (int i = 0; i < nBlock[0]; i++) {
-			final int value = getHuffmanValue(dcTab[0], temp, index);
+		for (int i = 0; i < HuffTab.length; i++) {
+			Arrays.fill(HuffTab[i], null);
+		}
+	}
 
-			if (value >= 0xFF00) {
-				return value;
-			}
 
-			final int n = getn(prev, value, temp, index);
 
-			final int nRestart = (n >> 8);
-			if ((nRestart >= RESTART_MARKER_BEGIN) && (nRestart <= RESTART_MARKER_END)) {
-				return nRestart;
-			}
+	// Drops the references to input and output and restores the default settings, before going back into a pool.
+	void clear() {
+		reset(EMPTY);
 
-			prev[0] += n;
+		if (window != null) {
+			window.reset(null);
 		}
 
-		return 0;
+		byteOutput = null;
+		shortOutput = null;
+		intOutput = null;
+		sink = null;
+		clearTargets();
+		executor = null;
+		pipelined = false;
+		setRegion(0, 0, 0, 0);
+		setOutputSize(0, 0);
+		restartIndex = null;
+		displayLut = null;
+		statistics = null;
 	}
 
 
 
-	private int decodeRGB(final int prev[], final int temp[], final int index[]) throws IOException {
-		switch (selection) {
-			case 2:
-				prev[0] = getPreviousY(outputRedData);
-				prev[1] = getPreviousY(outputGreenData);
-				prev[2] = getPreviousY(outputBlueData);
-				break;
-			case 3:
-				prev[0] = getPreviousXY(outputRedData);
-				prev[1] = getPreviousXY(outputGreenData);
-				prev[2] = getPreviousXY(outputBlueData);
-				break;
-			case 4:
-				prev[0] = (getPreviousX(outputRedData) + getPreviousY(outputRedData)) - getPreviousXY(outputRedData);
-				prev[1] = (getPreviousX(outputGreenData) + getPreviousY(outputGreenData)) - getPreviousXY(outputGreenData);
-				prev[2] = (getPreviousX(outputBlueData) + getPreviousY(outputBlueData)) - getPreviousXY(outputBlueData);
-				break;
-			case 5:
-				prev[0] = getPreviousX(outputRedData) + ((getPreviousY(outputRedData) - getPreviousXY(outputRedData)) >> 1);
-				prev[1] = getPreviousX(outputGreenData) + ((getPreviousY(outputGreenData) - getPreviousXY(outputGreenData)) >> 1);
-				prev[2] = getPreviousX(outputBlueData) + ((getPreviousY(outputBlueData) - getPreviousXY(outputBlueData)) >> 1);
-				break;
-			case 6:
-				prev[0] = getPreviousY(outputRedData) + ((getPreviousX(outputRedData) - getPreviousXY(outputRedData)) >> 1);
-				prev[1] = getPreviousY(outputGreenData) + ((getPreviousX(outputGreenData) - getPreviousXY(outputGreenData)) >> 1);
-				prev[2] = getPreviousY(outputBlueData) + ((getPreviousX(outputBlueData) - getPreviousXY(outputBlueData)) >> 1);
-				break;
-			case 7:
-				prev[0] = (int) (((long) getPreviousX(outputRedData) + getPreviousY(outputRedData)) / 2);
-				prev[1] = (int) (((long) getPreviousX(outputGreenData) + getPreviousY(outputGreenData)) / 2);
-				prev[2] = (int) (((long) getPreviousX(outputBlueData) + getPreviousY(outputBlueData)) / 2);
-				break;
-			default:
-				prev[0] = getPreviousX(outputRedData);
-				prev[1] = getPreviousX(outputGreenData);
-				prev[2] = getPreviousX(outputBlueData);
-				break;
+	private void clearTargets() {
+		if (byteTargets != null) {
+			Arrays.fill(byteTargets, null);
 		}
 
-		int value, actab[], dctab[];
-		int qtab[];
+		if (shortTargets != null) {
+			Arrays.fill(shortTargets, null);
+		}
 
-		for (int ctrC = 0; ctrC < numComp; ctrC++) {
-			qtab = qTab[ctrC];
-			actab = acTab[ctrC];
-			dctab = dcTab[ctrC];
-			for (int i = 0; i < nBlock[ctrC]; i++) {
-				for (int k = 0; k < IDCT_Source.length; k++) {
-					IDCT_Source[k] = 0;
-				}
+		if (intTargets != null) {
+			Arrays.fill(intTargets, null);
+		}
+	}
 
-				value = getHuffmanValue(dctab, temp, index);
 
-				if (value >= 0xFF00) {
-					return value;
-				}
 
-				prev[ctrC] = IDCT_Source[0] = prev[ctrC] + getn(index, value, temp, index);
-				IDCT_Source[0] *= qtab[0];
+	public int[][] decode() throws IOException {
+		readHeaders();
+		final int[][] outputRef = allocateOutput();
+		decodeScan();
+		return outputRef;
+	}
 
-				for (int j = 1; j < 64; j++) {
-					value = getHuffmanValue(actab, temp, index);
 
-					if (value >= 0xFF00) {
-						return value;
-					}
 
-					j += (value >> 4);
+	/**
+	 * Decodes into caller supplied 8 bit buffers, one per component. Requires a precision of at most 8 bits or a
+	 * DisplayLut.
+	 *
+	 * @param output destination per component
+	 * @param offset index of the first sample per component, or null for 0
+	 * @param stride samples between the starts of consecutive rows per component, or null for the image width
+	 */
+	public void decode(final byte[][] output, final int[] offset, final int[] stride) throws IOException {
+		readHeaders();
+		decodeScan(output, offset, stride);
+	}
 
-					if ((value & 0x0F) == 0) {
-						if ((value >> 4) == 0) {
-							break;
-						}
-					} else {
-						IDCT_Source[IDCT_P[j]] = getn(index, value & 0x0F, temp, index) * qtab[j];
-					}
-				}
-			}
-		}
 
-		return 0;
+
+	/**
+	 * Decodes into caller supplied 16 bit buffers, one per component. Samples are unsigned, read them with & 0xFFFF.
+	 *
+	 * @param output destination per component
+	 * @param offset index of the first sample per component, or null for 0
+	 * @param stride samples between the starts of consecutive rows per component, or null for the image width
+	 */
+	public void decode(final short[][] output, final int[] offset, final int[] stride) throws IOException {
+		readHeaders();
+		decodeScan(output, offset, stride);
 	}
 
 
 
-	//	Huffman table for fast search: (HuffTab) 8-bit Look up table 2-layer search architecture, 1st-layer represent 256 node (8 bits) if codeword-length > 8
-	//	bits, then the entry of 1st-layer = (# of 2nd-layer table) | MSB and it is stored in the 2nd-layer Size of tables in each layer are 256.
-	//	HuffTab[*][*][0-256] is always the only 1st-layer table.
-	//	 
-	//	An entry can be: (1) (# of 2nd-layer table) | MSB , for code length > 8 in 1st-layer (2) (Code length) << 8 | HuffVal
-	//	 
-	//	HuffmanValue(table   HuffTab[x][y] (ex) HuffmanValue(HuffTab[1][0],...)
-	//	                ):
-	//	    return: Huffman Value of table
-	//	            0xFF?? if it receives a MARKER
-	//	    Parameter:  table   HuffTab[x][y] (ex) HuffmanValue(HuffTab[1][0],...)
-	//	                temp    temp storage for remainded bits
-	//	                index   index to bit of temp
-	//	                in      FILE pointer
-	//	    Effect:
-	//	        temp  store new remainded bits
-	//	        index change to new index
-	//	        in    change to new position
-	//	    NOTE:
-	//	      Initial by   temp=0; index=0;
-	//	    NOTE: (explain temp and index)
-	//	      temp: is always in the form at calling time or returning time
-	//	       |  byte 4  |  byte 3  |  byte 2  |  byte 1  |
-	//	       |     0    |     0    | 00000000 | 00000??? |  if not a MARKER
-	//	                                               ^index=3 (from 0 to 15)
-	//	                                               321
-	//	    NOTE (marker and marker_index):
-	//	      If get a MARKER from 'in', marker=the low-byte of the MARKER
-	//	        and marker_index=9
-	//	      If marker_index=9 then index is always > 8, or HuffmanValue()
-	//	        will not be called
-	private int getHuffmanValue(final int table[], final int temp[], final int index[]) throws IOException {
-		int code, input;
-		final int mask = 0xFFFF;
-
-		if (index[0] < 8) {
-			temp[0] <<= 8;
-			input = get8();
-			if (input == 0xFF) {
-				marker = get8();
-				if (marker != 0) {
-					markerIndex = 9;
-				}
-			}
-			temp[0] |= input;
-		} else {
-			index[0] -= 8;
+	/**
+	 * Decodes into caller supplied int buffers, one per component.
+	 *
+	 * @param output destination per component
+	 * @param offset index of the first sample per component, or null for 0
+	 * @param stride samples between the starts of consecutive rows per component, or null for the image width
+	 */
+	public void decode(final int[][] output, final int[] offset, final int[] stride) throws IOException {
+		readHeaders();
+		decodeScan(output, offset, stride);
+	}
+
+
+
+	/**
+	 * Decodes all components into one caller supplied 8 bit buffer. Requires a precision of at most 8 bits or a
+	 * DisplayLut.
+	 *
+	 * @param offset index of the first sample
+	 * @param stride samples between the starts of consecutive rows, or 0 for rows without padding
+	 * @param layout OUTPUT_PLANAR, OUTPUT_INTERLEAVED_RGB or OUTPUT_INTERLEAVED_BGR
+	 */
+	public void decode(final byte[] output, final int offset, final int stride, final int layout) throws IOException {
+		readHeaders();
+		decodeScan(output, offset, stride, layout);
+	}
+
+
+
+	/**
+	 * Decodes all components into one caller supplied 16 bit buffer. Samples are unsigned, read them with & 0xFFFF.
+	 *
+	 * @param offset index of the first sample
+	 * @param stride samples between the starts of consecutive rows, or 0 for rows without padding
+	 * @param layout OUTPUT_PLANAR, OUTPUT_INTERLEAVED_RGB or OUTPUT_INTERLEAVED_BGR
+	 */
+	public void decode(final short[] output, final int offset, final int stride, final int layout) throws IOException {
+		readHeaders();
+		decodeScan(output, offset, stride, layout);
+	}
+
+
+
+	/**
+	 * Decodes all components into one caller supplied int buffer. The packed layouts take 8 bit samples, or any samples
+	 * with a DisplayLut, of one or three components and replicate a single component into all three channels.
+	 *
+	 * @param offset index of the first sample or pixel
+	 * @param stride samples (or packed pixels) between the starts of consecutive rows, or 0 for rows without padding
+	 * @param layout one of the OUTPUT_ constants
+	 */
+	public void decode(final int[] output, final int offset, final int stride, final int layout) throws IOException {
+		readHeaders();
+		decodeScan(output, offset, stride, layout);
+	}
+
+
+
+	/**
+	 * Decodes row by row into sink instead of an output buffer, so memory use does not grow with the image height. Rows
+	 * arrive in order on the calling thread: restart intervals are not decoded in parallel, a pipelined decode still
+	 * overlaps entropy decoding with reconstruction.
+	 */
+	public void decode(final RowSink sink) throws IOException {
+		readHeaders();
+		decodeScan(sink);
+	}
+
+
+
+	// The decodeScan variants below expect readHeaders() to have run, so callers can size their output first.
+
+	void decodeScan(final byte[][] output, final int[] offset, final int[] stride) throws IOException {
+		if ((frame.getPrecision() > 8) && (displayLut == null)) {
+			throw new IllegalArgumentException(frame.getPrecision() + " bit samples do not fit a byte[] output without a DisplayLut");
 		}
 
-		code = table[temp[0] >> index[0]];
+		setOutput(output, null, null, offset, stride, output.length);
+		decodeScan();
+	}
 
-		if ((code & MSB) != 0) {
-			if (markerIndex != 0) {
-				markerIndex = 0;
-				return 0xFF00 | marker;
-			}
 
-			temp[0] &= (mask >> (16 - index[0]));
-			temp[0] <<= 8;
-			input = get8();
 
-			if (input == 0xFF) {
-				marker = get8();
-				if (marker != 0) {
-					markerIndex = 9;
-				}
-			}
+	void decodeScan(final short[][] output, final int[] offset, final int[] stride) throws IOException {
+		setOutput(null, output, null, offset, stride, output.length);
+		decodeScan();
+	}
+
+
+
+	void decodeScan(final int[][] output, final int[] offset, final int[] stride) throws IOException {
+		setOutput(null, null, output, offset, stride, output.length);
+		decodeScan();
+	}
+
 
-			temp[0] |= input;
-			code = table[((code & 0xFF) * 256) + (temp[0] >> index[0])];
-			index[0] += 8;
+
+	void decodeScan(final byte[] output, final int offset, final int stride, final int layout) throws IOException {
+		if ((frame.getPrecision() > 8) && (displayLut == null)) {
+			throw new IllegalArgumentException(frame.getPrecision() + " bit samples do not fit a byte[] output without a DisplayLut");
+		}
+
+		if (layout >= OUTPUT_PACKED_RGB) {
+			throw new IllegalArgumentException("packed layouts need an int[] output");
+		}
+
+		if ((byteTargets == null) || (byteTargets.length < frame.getNumComponents())) {
+			byteTargets = new byte[frame.getNumComponents()][];
 		}
 
-		index[0] += 8 - (code >> 8);
+		Arrays.fill(byteTargets, output);
+		setOutput(byteTargets, null, null, offset, stride, layout);
+		decodeScan();
+	}
+
+
 
-		if (index[0] < 0) {
-			throw new IOException("index=" + index[0] + " temp=" + temp[0] + " code=" + code + " in HuffmanValue()");
+	void decodeScan(final short[] output, final int offset, final int stride, final int layout) throws IOException {
+		if (layout >= OUTPUT_PACKED_RGB) {
+			throw new IllegalArgumentException("packed layouts need an int[] output");
 		}
 
-		if (index[0] < markerIndex) {
-			markerIndex = 0;
-			return 0xFF00 | marker;
+		if ((shortTargets == null) || (shortTargets.length < frame.getNumComponents())) {
+			shortTargets = new short[frame.getNumComponents()][];
 		}
 
-		temp[0] &= (mask >> (16 - index[0]));
-		return code & 0xFF;
+		Arrays.fill(shortTargets, output);
+		setOutput(null, shortTargets, null, offset, stride, layout);
+		decodeScan();
 	}
 
 
 
-	private int getn(final int[] PRED, final int n, final int temp[], final int index[]) throws IOException {
-		int result;
-		final int one = 1;
-		final int n_one = -1;
-		final int mask = 0xFFFF;
-		int input;
+	void decodeScan(final int[] output, final int offset, final int stride, final int layout) throws IOException {
+		final boolean narrow = (frame.getPrecision() <= 8) || (displayLut != null);
 
-		if (n == 0) {
-			return 0;
+		if ((layout >= OUTPUT_PACKED_RGB) && (!narrow || ((numComp != 1) && (numComp != 3)) || !fullScan)) {
+			throw new IllegalArgumentException("packed layouts need 1 or 3 components of at most 8 bits, or a DisplayLut, in a single scan at full resolution");
 		}
 
-		if (n == 16) {
-			if (PRED[0] >= 0) {
-				return -32768;
-			} else {
-				return 32768;
-			}
+		if ((intTargets == null) || (intTargets.length < frame.getNumComponents())) {
+			intTargets = new int[frame.getNumComponents()][];
 		}
 
-		index[0] -= n;
+		Arrays.fill(intTargets, output);
+		setOutput(null, null, intTargets, offset, stride, layout);
+		decodeScan();
+	}
 
-		if (index[0] >= 0) {
-			if ((index[0] < markerIndex) && !isLastPixel()) { // this was corrupting the last pixel in some cases
-				markerIndex = 0;
-				return (0xFF00 | marker) << 8;
-			}
 
-			result = temp[0] >> index[0];
-			temp[0] &= (mask >> (16 - index[0]));
-		} else {
-			temp[0] <<= 8;
-			input = get8();
 
-			if (input == 0xFF) {
-				marker = get8();
-				if (marker != 0) {
-					markerIndex = 9;
-				}
-			}
+	void decodeScan(final RowSink sink) throws IOException {
+		if (!fullScan) {
+			throw new IllegalArgumentException("a RowSink needs the components at full resolution in a single scan");
+		}
 
-			temp[0] |= input;
-			index[0] += 8;
+		byteOutput = null;
+		shortOutput = null;
+		intOutput = null;
+		this.sink = sink;
+		allocateRows();
+		decodeScan();
+	}
 
-			if (index[0] < 0) {
-				if (markerIndex != 0) {
-					markerIndex = 0;
-					return (0xFF00 | marker) << 8;
-				}
 
-				temp[0] <<= 8;
-				input = get8();
 
-				if (input == 0xFF) {
-					marker = get8();
-					if (marker != 0) {
-						markerIndex = 9;
-					}
-				}
+	// Decodes the scan set up by readHeaders() and, when the frame codes its components in more than one scan, the
+	// scans that follow it until every component is decoded or the frame ends.
+	private void decodeScan() throws IOException {
+		if (isParallelScans()) {
+			decodeScans();
+			countDecode();
+			return;
+		}
 
-				temp[0] |= input;
-				index[0] += 8;
-			}
+		int current = decodeScanData();
 
-			if (index[0] < 0) {
-				throw new IOException("index=" + index[0] + " in getn()");
-			}
+		for (int decoded = numComp; decoded < frame.getNumComponents(); decoded += numComp) {
+			current = nextScan(current);
 
-			if (index[0] < markerIndex) {
-				markerIndex = 0;
-				return (0xFF00 | marker) << 8;
+			if (current != 0xFFDA) { // SOS
+				break; // the stream ends before every component is decoded, the output of the others is not written
 			}
 
-			result = temp[0] >> index[0];
-			temp[0] &= (mask >> (16 - index[0]));
+			allocateRows();
+			current = decodeScanData();
 		}
 
-		if (result < (one << (n - 1))) {
-			result += (n_one << n) + 1;
+		if (current == 0xFFDC) { //DNL
+			fetch(4);
+			readNumber();
 		}
 
-		return result;
+		countDecode();
 	}
 
 
 
-	private int getPreviousX(final int data[]) {
-		if (xLoc > 0) {
-			return data[((yLoc * xDim) + xLoc) - 1];
-		} else if (yLoc > 0) {
-			return getPreviousY(data);
-		} else {
-			return (1 << (frame.getPrecision() - 1));
+	// Adds the decode that just ended to the statistics, if any.
+	private void countDecode() {
+		if (statistics != null) {
+			final long offset = input != null ? input.getOffset() : 0;
+			statistics.decodes++;
+			statistics.bytes += (offset + Math.max(dataBufferIndex, reader.getPosition())) - streamStart;
+			statistics.pixels += fullScan ? (long) scaledWidth * scaledHeight : (long) frame.getDimX() * frame.getDimY();
+			statistics.stuffedBytes += reader.takeStuffed();
 		}
 	}
 
 
 
-	private int getPreviousXY(final int data[]) {
-		if ((xLoc > 0) && (yLoc > 0)) {
-			return data[(((yLoc - 1) * xDim) + xLoc) - 1];
-		} else {
-			return getPreviousY(data);
+	// Adds the statistics of decoders that decoded part of the image for this one.
+	private void addStatistics(final List<JPEGLosslessDecoder> children) {
+		if (statistics != null) {
+			for (final JPEGLosslessDecoder child : children) {
+				statistics.add(child.statistics);
+				statistics.stuffedBytes += child.reader.takeStuffed();
+			}
 		}
 	}
 
 
 
-	private int getPreviousY(final int data[]) {
-		if (yLoc > 0) {
-			return data[((yLoc - 1) * xDim) + xLoc];
-		} else {
-			return getPreviousX(data);
+	// Decodes the entropy coded data of the current scan, and returns the marker that follows it, -1 at the end of the
+	// data, or 0 when the scan is left unread below a region.
+	private int decodeScanData() throws IOException {
+		int current = 0;
+
+		if (!sampled && (restartInterval > 0) && (xDim > 0) && ((restartInterval % xDim) != 0)) {
+			throw new IOException("restart interval " + restartInterval + " is not a whole number of " + xDim + " sample rows");
 		}
-	}
 
+		reader.reset(dataBufferIndex);
 
+		if (statistics != null) {
+			statistics.start();
+		}
 
-	private boolean isLastPixel() {
-		return (xLoc == (xDim - 1)) && (yLoc == (yDim - 1));
-	}
+		if (sampled) {
+			current = decodeSampled();
+		} else if ((restartInterval == 0) && isPipelined()) {
+			current = decodePipelined();
+		} else if (restartInterval == 0) {
+			current = decodeRows(yDim);
+		} else if (isParallel()) {
+			current = decodeIntervals();
+		} else {
+			final int rowsPerInterval = restartInterval / xDim;
+			final int skipped = outputY / rowsPerInterval;
 
+			if (skipped > 0) { // start at the interval holding the first row of the region
+				final int start = intervalStart(skipped);
 
+				if (start >= 0) {
+					reader.reset(start);
+					yLoc = skipped * rowsPerInterval;
+				}
+			}
 
-	private void output(final int PRED[]) {
-		if (numComp == 1) {
-			outputSingle(PRED);
-		} else {
-			outputRGB(PRED);
+			while (true) { // Decode one restart interval
+				restartRow = yLoc;
+				current = decodeRows(rowsPerInterval);
+
+				if (statistics != null) {
+					statistics.restartIntervals++;
+				}
+
+				if (isRegionComplete(current)) {
+					break;
+				} else if (current != 0) { // the interval ended early, resume at the rows of the next one
+					yLoc = Math.min(yDim, restartRow + rowsPerInterval);
+				} else {
+					current = reader.nextMarker();
+				}
+
+				if ((current < RESTART_MARKER_BEGIN) || (current > RESTART_MARKER_END)) {
+					break; //current=MARKER
+				}
+			}
+		}
+
+		if (isRegionComplete(current)) {
+			return 0; // the rest of the scan is not read
 		}
+
+		if (current == 0) {
+			current = reader.nextMarker();
+		}
+
+		dataBufferIndex = reader.getPosition();
+		return current;
 	}
 
 
 
-	private void outputSingle(final int PRED[]) {
-		if ((xLoc < xDim) && (yLoc < yDim)) {
-			outputData[(yLoc * xDim) + xLoc] = mask & PRED[0];
-			xLoc++;
+	// Reads the segments between two scans, e.g. the tables of the next one, and the header of the next scan. Returns
+	// the marker it stopped at, SOS once the next scan is set up, or whatever ended the frame, -1 for a truncated one.
+	private int nextScan(final int marker) throws IOException {
+		int current = marker;
 
-			if (xLoc >= xDim) {
-				yLoc++;
-				xLoc = 0;
-			}
+		if ((current >> 8) == 0xFF) {
+			fetchSegment(current);
 		}
-	}
 
+		while (((current >> 8) == 0xFF) && (current != 0xFFD9)) { // EOI
+			if (!isAvailable(2) || !isAvailable(buffer.getShort(dataBufferIndex) & 0xFFFF)) {
+				return -1; // the stream ends within the segment
+			}
 
+			if (current == 0xFFDA) { // SOS
+				scan.read(this);
+				beginScan();
+				applyRegion();
 
-	private void outputRGB(final int PRED[]) {
-		if ((xLoc < xDim) && (yLoc < yDim)) {
-			outputRedData[(yLoc * xDim) + xLoc] = PRED[0];
-			outputGreenData[(yLoc * xDim) + xLoc] = PRED[1];
-			outputBlueData[(yLoc * xDim) + xLoc] = PRED[2];
-			xLoc++;
+				if (statistics != null) {
+					statistics.lapHeader();
+				}
 
-			if (xLoc >= xDim) {
-				yLoc++;
-				xLoc = 0;
+				return current;
 			}
+
+			readMarkerSegment(current);
+			current = isAvailable(2) ? readMarker() : -1;
 		}
+
+		return current;
 	}
 
 
 
-	private int readApp() throws IOException {
-		int count = 0;
-		final int length = get16();
-		count += 2;
+	// Decodes a scan that interleaves components with more than one sample per MCU. An MCU holds hSamp x vSamp samples
+	// of each component, an MCU row vSamp lines of each, and the MCUs cover ceil(X / Hmax) x ceil(Y / Vmax) of them,
+	// so samples right of and below a component are decoded and dropped. Restart intervals are whole MCU rows. Returns
+	// 0, or the marker that ends the data early, like decodeRows().
+	private int decodeSampled() throws IOException {
+		final int mcusX = (frame.getDimX() + maxHSamp - 1) / maxHSamp;
+		final int mcusY = (frame.getDimY() + maxVSamp - 1) / maxVSamp;
 
-		while (count < length) {
-			get8();
-			count++;
+		if ((restartInterval > 0) && ((restartInterval % mcusX) != 0)) {
+			throw new IOException("restart interval " + restartInterval + " is not a whole number of " + mcusX + " MCU rows");
 		}
 
-		return length;
-	}
+		final int rowsPerInterval = restartInterval > 0 ? restartInterval / mcusX : mcusY;
+		final int[][][] rows = new int[numComp][][]; // per component the line above the MCU row, then its lines
+		final int[][][] diff = new int[numComp][][];
 
+		for (int c = 0; c < numComp; c++) {
+			rows[c] = new int[vSamp[c] + 1][mcusX * hSamp[c]];
+			diff[c] = new int[vSamp[c]][mcusX * hSamp[c]];
+		}
 
+		for (int mcuRow = 0; mcuRow < mcusY; mcuRow++) {
+			if ((mcuRow > 0) && ((mcuRow % rowsPerInterval) == 0)) {
+				final int current = reader.nextMarker();
 
-	private String readComment() throws IOException {
-		final StringBuffer sb = new StringBuffer();
-		int count = 0;
+				if ((current < RESTART_MARKER_BEGIN) || (current > RESTART_MARKER_END)) {
+					return current;
+				}
+			}
 
-		final int length = get16();
-		count += 2;
+			if ((statistics != null) && (restartInterval > 0) && ((mcuRow % rowsPerInterval) == 0)) {
+				statistics.restartIntervals++;
+			}
 
-		while (count < length) {
-			sb.append((char) get8());
-			count++;
-		}
+			for (int mcu = 0; mcu < mcusX; mcu++) {
+				for (int c = 0; c < numComp; c++) {
+					final int table[] = dcTab[c];
+					final int h = hSamp[c];
+					final int x = mcu * h;
 
-		return sb.toString();
-	}
+					for (int v = 0; v < vSamp[c]; v++) {
+						final int d[] = diff[c][v];
 
+						for (int i = x; i < (x + h); i++) {
+							d[i] = reader.decodeDifference(table);
+						}
+					}
+				}
+			}
 
+			if (statistics != null) {
+				for (int c = 0; c < numComp; c++) {
+					for (int v = 0; v < vSamp[c]; v++) {
+						statistics.count(diff[c][v], mcusX * hSamp[c], dcTab[c]);
+					}
+				}
 
-	private int readNumber() throws IOException {
-		final int Ld = get16();
+				statistics.lapEntropy();
+			}
 
-		if (Ld != 4) {
-			throw new IOException("ERROR: Define number format throw new IOException [Ld!=4]");
-		}
+			for (int c = 0; c < numComp; c++) {
+				final int lines[][] = rows[c];
+				final int f = frameComp[c];
 
-		return get16();
-	}
+				for (int v = 0; v < vSamp[c]; v++) {
+					final int y = (mcuRow * vSamp[c]) + v;
+					reconstructSamples(lines[v + 1], lines[v], diff[c][v], mcusX * hSamp[c], (v == 0) && ((mcuRow % rowsPerInterval) == 0));
 
+					if (statistics != null) {
+						statistics.lapPrediction();
+					}
 
+					if (y < componentDimY[f]) {
+						storeSamples(f, y, lines[v + 1], componentDimX[f]);
+					}
 
-	public int getNumComponents() {
-		return numComp;
+					if (statistics != null) {
+						statistics.lapOutput();
+					}
+				}
+
+				final int swap[] = lines[0];
+				lines[0] = lines[vSamp[c]];
+				lines[vSamp[c]] = swap;
+			}
+
+			if (reader.isOverrun()) {
+				return reader.nextMarker();
+			}
+		}
+
+		return 0;
+	}
+
+
+
+	// Decodes up to rows rows starting at yLoc, and none below the region. Returns 0, or the marker that follows the
+	// data when the data ended early, in which case the last row decoded is completed from zero bits.
+	private int decodeRows(final int rows) throws IOException {
+		if (statistics != null) {
+			return decodeCountedRows(rows);
+		}
+
+		final int end = outputY + outputHeight;
+		final int columns = outputX + outputWidth;
+
+		for (int row = 0; (row < rows) && (yLoc < end); row++) {
+			readRowDifferences(differences);
+			reconstructRow(differences, columns);
+			nextRow();
+
+			if (reader.isOverrun()) {
+				return reader.nextMarker();
+			}
+		}
+
+		return 0;
+	}
+
+
+
+	// decodeRows() counting the differences of each row and timing its stages, kept apart so the loop above stays as
+	// it is without statistics.
+	private int decodeCountedRows(final int rows) throws IOException {
+		final int end = outputY + outputHeight;
+		final int columns = outputX + outputWidth;
+
+		for (int row = 0; (row < rows) && (yLoc < end); row++) {
+			readRowDifferences(differences);
+			countDifferences(differences);
+			statistics.lapEntropy();
+			reconstructRow(differences, columns);
+			statistics.lapPrediction();
+			nextRow();
+			statistics.lapOutput();
+
+			if (reader.isOverrun()) {
+				return reader.nextMarker();
+			}
+		}
+
+		return 0;
+	}
+
+
+
+	private void countDifferences(final int diff[][]) {
+		for (int c = 0; c < numComp; c++) {
+			statistics.count(diff[c], xDim, dcTab[c]);
+		}
+	}
+
+
+
+	// True once the rows of a region that ends above the last row are decoded, given the marker a decode step returned.
+	private boolean isRegionComplete(final int current) {
+		return (current == 0) && (yLoc >= (outputY + outputHeight)) && ((outputY + outputHeight) < yDim);
+	}
+
+
+
+	private boolean isParallel() {
+		return (executor != null) && (input == null) && (sink == null) && !sampled && !isReduced() && (xDim > 0) && (yDim > 0)
+				&& (restartInterval < (xDim * yDim));
+	}
+
+
+
+	// Finds where the entropy coded data of each restart interval starts, decodes runs of intervals on the executor
+	// and returns the marker that ends the scan, like the serial loop does.
+	private int decodeIntervals() throws IOException {
+		final int rowsPerInterval = restartInterval / xDim;
+		final int end = outputY + outputHeight;
+		final int needed = ((end + rowsPerInterval) - 1) / rowsPerInterval; // intervals down to the end of the region
+		final List<Integer> starts = new ArrayList<Integer>(); // of the intervals from skipped on
+		final int first = intervalStart(outputY / rowsPerInterval);
+		final int skipped = first >= 0 ? outputY / rowsPerInterval : 0; // intervals above the region, not decoded
+		int index = first >= 0 ? first : dataBufferIndex;
+		int current = 0;
+
+		starts.add(Integer.valueOf(index));
+
+		while ((end == yDim) || ((skipped + starts.size()) < needed)) { // a region that ends early needs no end marker
+			index = findMarker(index);
+
+			if ((index + 1) >= buffer.limit()) {
+				break;
+			}
+
+			final int marker = 0xFF00 | (buffer.get(index + 1) & 0xFF);
+			index += 2;
+
+			if ((marker >= RESTART_MARKER_BEGIN) && (marker <= RESTART_MARKER_END)) {
+				starts.add(Integer.valueOf(index));
+			} else {
+				current = marker;
+				break;
+			}
+		}
+
+		final int intervals = Math.min(skipped + starts.size(), needed);
+		final int tasks = Math.max(0, Math.min(intervals - skipped, Runtime.getRuntime().availableProcessors() * 4));
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>(tasks);
+		final List<JPEGLosslessDecoder> children = new ArrayList<JPEGLosslessDecoder>(tasks);
+
+		for (int t = 0; t < tasks; t++) {
+			final int from = skipped + ((t * (intervals - skipped)) / tasks);
+			final int to = skipped + (((t + 1) * (intervals - skipped)) / tasks);
+			final JPEGLosslessDecoder child = new JPEGLosslessDecoder(this);
+			children.add(child);
+
+			futures.add(executor.submit(new Callable<Object>() {
+
+				@Override
+				public Object call() throws IOException {
+					for (int i = from; i < to; i++) {
+						child.decodeInterval(starts.get(i - skipped).intValue(), i * rowsPerInterval);
+					}
+
+					return null;
+				}
+			}));
+		}
+
+		await(futures, "restart interval");
+		addStatistics(children);
+		reader.reset(index);
+		yLoc = Math.min(end, intervals * rowsPerInterval);
+		return current;
+	}
+
+
+
+	private static void await(final List<Future<Object>> futures, final String what) throws IOException {
+		for (final Future<Object> future : futures) {
+			try {
+				future.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while decoding " + what + "s");
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				} else if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+
+				throw new IOException("could not decode " + what + ": " + e.getCause());
+			}
+		}
+	}
+
+
+
+	private boolean isParallelScans() {
+		return (executor != null) && (input == null) && (numComp < frame.getNumComponents());
+	}
+
+
+
+	// Decodes a frame that codes its components in separate scans with one task per scan. The scans are independent,
+	// so once the end of each is found by its marker, and the segments between them are read, they are decoded in
+	// parallel, each with the tables and restart interval that were in effect for it.
+	private void decodeScans() throws IOException {
+		final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		final List<JPEGLosslessDecoder> children = new ArrayList<JPEGLosslessDecoder>();
+		int current = 0xFFDA;
+
+		try {
+			for (int decoded = 0; (current == 0xFFDA) && (decoded < frame.getNumComponents()); decoded += numComp) {
+				final JPEGLosslessDecoder child = new JPEGLosslessDecoder(this);
+				children.add(child);
+
+				for (int i = 0; i < numComp; i++) { // a later DHT may compile into the same array
+					child.dcTab[i] = dcTab[i].clone();
+				}
+
+				futures.add(executor.submit(new Callable<Object>() {
+
+					@Override
+					public Object call() throws IOException {
+						child.decodeScanData();
+						return null;
+					}
+				}));
+
+				current = nextScan(skipScan());
+			}
+		} finally {
+			await(futures, "scan");
+		}
+
+		addStatistics(children);
+	}
+
+
+
+	// Moves past the entropy coded data of the current scan and its restart markers without decoding it, and returns
+	// the marker that ends it, or -1 at the end of the data.
+	private int skipScan() {
+		int index = dataBufferIndex;
+
+		while (true) {
+			index = findMarker(index);
+
+			if ((index + 1) >= buffer.limit()) {
+				dataBufferIndex = buffer.limit();
+				return -1;
+			}
+
+			final int marker = 0xFF00 | (buffer.get(index + 1) & 0xFF);
+			index += 2;
+
+			if ((marker < RESTART_MARKER_BEGIN) || (marker > RESTART_MARKER_END)) {
+				dataBufferIndex = index;
+				return marker;
+			}
+		}
+	}
+
+
+
+	// Index of the first marker at or after index in entropy coded data, past stuffed and fill bytes. Less than two
+	// bytes before the limit when there is none.
+	private int findMarker(int index) {
+		final int limit = buffer.limit();
+
+		while ((index + 1) < limit) {
+			if (((index + 8) <= limit) && (BitReader.ffBytes(buffer.getLong(index)) == 0)) { // eight bytes without 0xFF
+				index += 8;
+				continue;
+			}
+
+			if ((buffer.get(index) & 0xFF) != 0xFF) {
+				index++;
+				continue;
+			}
+
+			final int next = buffer.get(index + 1) & 0xFF;
+
+			if (next == 0x00) { // stuffed byte
+				index += 2;
+			} else if (next == 0xFF) { // fill byte
+				index++;
+			} else {
+				break;
+			}
+		}
+
+		return index;
+	}
+
+
+
+	// Index of the entropy coded data of restart interval number interval, from the restart index if there is one, or
+	// -1 if it cannot be found without decoding.
+	private int intervalStart(final int interval) throws IOException {
+		if (interval == 0) {
+			return dataBufferIndex;
+		} else if (input != null) {
+			return -1;
+		} else if (restartIndex == null) {
+			return skipIntervals(dataBufferIndex, interval);
+		}
+
+		if ((restartIndex.getDimX() != xDim) || (restartIndex.getDimY() != yDim) || ((restartIndex.getRowsPerInterval() * xDim) != restartInterval)
+				|| (restartIndex.getOffset(0) != (dataBufferIndex - streamStart))) {
+			throw new IOException("restart index does not match the stream");
+		}
+
+		if (interval >= restartIndex.getIntervalCount()) {
+			return -1;
+		}
+
+		final int start = streamStart + restartIndex.getOffset(interval);
+
+		if ((start > buffer.limit()) || (start < 2) || ((buffer.getShort(start - 2) & 0xFFF8) != RESTART_MARKER_BEGIN)) {
+			throw new IOException("restart index does not match the stream, no restart marker at " + (start - 2));
+		}
+
+		return start;
+	}
+
+
+
+	// Offsets of the entropy coded data of all restart intervals of the scan, see RestartIndex.
+	RestartIndex indexIntervals() throws IOException {
+		if ((input != null) || !fullScan || (restartInterval == 0) || (xDim == 0) || (yDim == 0) || ((restartInterval % xDim) != 0)) {
+			throw new IOException("no restart intervals of whole rows to index");
+		}
+
+		final int rowsPerInterval = restartInterval / xDim;
+		final int offsets[] = new int[((yDim + rowsPerInterval) - 1) / rowsPerInterval];
+		int index = dataBufferIndex;
+		int count = 0;
+
+		offsets[count++] = index - streamStart;
+
+		while (count < offsets.length) {
+			index = findMarker(index);
+
+			if (((index + 1) >= buffer.limit()) || (((buffer.getShort(index) & 0xFFF8) != RESTART_MARKER_BEGIN))) {
+				break;
+			}
+
+			index += 2;
+			offsets[count++] = index - streamStart;
+		}
+
+		return new RestartIndex(xDim, yDim, rowsPerInterval, count < offsets.length ? Arrays.copyOf(offsets, count) : offsets);
+	}
+
+
+
+	// Index of the entropy coded data count restart intervals after the interval starting at index, found by their
+	// markers without decoding them, or -1 when the scan ends first.
+	private int skipIntervals(final int index, final int count) {
+		int next = index;
+
+		for (int i = 0; i < count; i++) {
+			next = findMarker(next);
+
+			if ((next + 1) >= buffer.limit()) {
+				return -1;
+			}
+
+			final int marker = 0xFF00 | (buffer.get(next + 1) & 0xFF);
+
+			if ((marker < RESTART_MARKER_BEGIN) || (marker > RESTART_MARKER_END)) {
+				return -1;
+			}
+
+			next += 2;
+		}
+
+		return next;
+	}
+
+
+
+	// Decodes one restart interval whose entropy coded data starts at start and whose first row is firstRow.
+	private void decodeInterval(final int start, final int firstRow) throws IOException {
+		reader.reset(start);
+		yLoc = firstRow;
+		restartRow = firstRow;
+
+		if (statistics != null) {
+			statistics.restartIntervals++;
+			statistics.start();
+		}
+
+		decodeRows(restartInterval / xDim);
+	}
+
+
+
+	private boolean isPipelined() {
+		return pipelined && !sampled && (xDim > 0) && (yDim > 0) && (((long) xDim * yDim) >= PIPELINE_MIN_PIXELS);
+	}
+
+
+
+	// Reconstructs the rows whose differences an entropy decoding thread passes through a RowRing, and returns the
+	// marker that ended the scan.
+	private int decodePipelined() throws IOException {
+		final RowRing ring = new RowRing(PIPELINE_ROWS, numComp, xDim);
+		final JPEGLosslessDecoder entropy = new JPEGLosslessDecoder(this);
+		entropy.reader.reset(dataBufferIndex);
+
+		final Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+				if (ring.start()) {
+					entropy.decodeDifferences(ring);
+				}
+			}
+		};
+
+		if (executor == null) {
+			final Thread thread = new Thread(task, "JPEGLosslessDecoder entropy");
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			try {
+				executor.execute(task);
+			} catch (final RejectedExecutionException e) {
+				return decodeRows(yDim); // e.g. shut down
+			}
+		}
+
+		try {
+			int[][] rowDifferences;
+
+			while ((rowDifferences = ring.take()) != null) {
+				if (statistics != null) {
+					statistics.start(); // not the wait for the entropy thread
+				}
+
+				reconstructRow(rowDifferences, Math.min(ring.count(), outputX + outputWidth));
+				ring.release();
+
+				if (statistics != null) {
+					statistics.lapPrediction();
+				}
+
+				nextRow();
+
+				if (statistics != null) {
+					statistics.lapOutput();
+				}
+			}
+		} finally {
+			ring.close();
+		}
+
+		if (ring.isTakenOver()) { // the executor did not run the entropy stage in time
+			return decodeRows(yDim);
+		}
+
+		final Throwable failure = ring.getFailure();
+
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+
+		reader.reset(entropy.reader.getPosition());
+		addStatistics(Collections.singletonList(entropy));
+		return ring.getMarker();
+	}
+
+
+
+	// Entropy stage of the pipelined decode: publishes the differences of each row to the ring until the image is
+	// complete or a marker ends the scan.
+	private void decodeDifferences(final RowRing ring) {
+		int current = 0;
+
+		try {
+			while ((current == 0) && (yLoc < (outputY + outputHeight))) {
+				final int[][] row = ring.claim();
+
+				if (row == null) { // reconstruction gave up
+					return;
+				}
+
+				if (statistics != null) {
+					statistics.start(); // not the wait for a free row
+				}
+
+				readRowDifferences(row);
+
+				if (statistics != null) {
+					countDifferences(row);
+					statistics.lapEntropy();
+				}
+
+				ring.publish(xDim);
+				yLoc++;
+
+				if (reader.isOverrun()) {
+					current = reader.nextMarker();
+				}
+			}
+
+			ring.finish(current, null);
+		} catch (final Throwable e) {
+			ring.finish(0, e);
+		}
+	}
+
+
+
+	// Reads a marker. When reading from a channel, the segment the marker starts is fetched into the window first, so
+	// the segment parsers can read it through get8() and get16().
+	private int readMarker() throws IOException {
+		fetch(2);
+		final int marker = get16();
+		fetchSegment(marker);
+		return marker;
+	}
+
+
+
+	// Reads a marker of the headers like readMarker(), and checks the segment it starts is all there, so a stream cut
+	// off within it fails with an IOException rather than a read past the end of the buffer.
+	private int readHeaderMarker() throws IOException {
+		if (!isAvailable(2)) {
+			throw new IOException("stream ends within its headers");
+		}
+
+		final int marker = readMarker();
+
+		if (hasSegment(marker) && (!isAvailable(2) || ((buffer.getShort(dataBufferIndex) & 0xFFFF) < 2)
+				|| !isAvailable(buffer.getShort(dataBufferIndex) & 0xFFFF))) {
+			throw new IOException("stream ends within segment " + Integer.toHexString(marker));
+		}
+
+		return marker;
+	}
+
+
+
+	// False for the standalone markers SOI, EOI, RSTn and TEM.
+	private static boolean hasSegment(final int marker) {
+		return ((marker < 0xFFD0) || (marker > 0xFFD9)) && (marker != 0xFF01);
+	}
+
+
+
+	// Fetches the segment that follows marker, which has just been read, when reading from a channel.
+	private void fetchSegment(final int marker) throws IOException {
+		if ((input != null) && hasSegment(marker)) {
+			fetch(2);
+
+			if ((dataBufferIndex + 2) <= buffer.limit()) {
+				fetch(buffer.getShort(dataBufferIndex) & 0xFFFF);
+			}
+		}
+	}
+
+
+
+	// Makes count bytes from dataBufferIndex on available when reading from a channel.
+	private void fetch(final int count) throws IOException {
+		if (input != null) {
+			dataBufferIndex = input.refill(dataBufferIndex, count);
+		}
+	}
+
+
+
+	// Reads the table segments up to the first SOS, or the EOI of a tables-only stream, skipping the frame header.
+	private void readTables() throws IOException {
+		if (readHeaderMarker() != 0xFFD8) { // SOI
+			throw new IOException("Not a JPEG file");
+		}
+
+		int current = readHeaderMarker();
+
+		while ((current != 0xFFD9) && (current != 0xFFDA)) { // EOI, SOS
+			if (((current >> 4) == 0x0FFC) && (current != 0xFFC4) && (current != 0xFFCC)) { // SOF 0~15
+				skipSegment();
+			} else {
+				readMarkerSegment(current);
+			}
+
+			current = readHeaderMarker();
+		}
+	}
+
+
+
+	// Parses SOI through the first SOS like readHeaders(), but only notes which Huffman tables are defined instead of
+	// building them, and checks each segment is complete instead of failing on a read past the end.
+	JPEGLosslessHeader probe() throws IOException {
+		int startOfFrame = 0;
+		int tables = 0;
+
+		restartInterval = 0;
+
+		if (!isAvailable(2) || (readMarker() != 0xFFD8)) { // SOI
+			throw new IOException("Not a JPEG file");
+		}
+
+		while (true) {
+			if (!isAvailable(2)) {
+				throw new IOException("stream ends before its first scan");
+			}
+
+			final int current = readMarker();
+
+			if ((current == 0xFFD9) || ((current >> 8) != 0xFF)) { // EOI
+				throw new IOException("no scan before marker " + Integer.toHexString(current));
+			}
+
+			if (!isAvailable(2) || !isAvailable(buffer.getShort(dataBufferIndex) & 0xFFFF)) {
+				throw new IOException("stream ends within segment " + Integer.toHexString(current));
+			}
+
+			if (current == 0xFFDA) { // SOS
+				break;
+			} else if (current == 0xFFC4) { // DHT
+				tables |= readTablePresence();
+			} else if (current == 0xFFDD) { // DRI
+				restartInterval = readNumber();
+			} else if (((current >> 4) == 0x0FFC) && (current != 0xFFCC)) { // SOF 0~15
+				startOfFrame = current;
+				frame.read(this);
+			} else {
+				skipSegment();
+			}
+		}
+
+		if (startOfFrame == 0) {
+			throw new IOException("no frame header before the first scan");
+		}
+
+		scan.read(this);
+		return new JPEGLosslessHeader(startOfFrame, frame, scan, restartInterval, tables, dataBufferIndex - streamStart);
+	}
+
+
+
+	private boolean isAvailable(final int count) throws IOException {
+		fetch(count);
+		return (dataBufferIndex + count) <= buffer.limit();
+	}
+
+
+
+	// Skips a DHT segment, returning bit 4 * class + destination set for each table it defines.
+	private int readTablePresence() {
+		final int start = dataBufferIndex;
+		final int end = start + get16();
+		int tables = 0;
+
+		while ((dataBufferIndex + 17) <= end) {
+			final int tableClassAndDestination = get8();
+			int count = 0;
+
+			for (int i = 0; i < 16; i++) {
+				count += get8();
+			}
+
+			tables |= 1 << ((((tableClassAndDestination >> 4) & 0x01) * 4) + (tableClassAndDestination & 0x03));
+			dataBufferIndex += count;
+		}
+
+		dataBufferIndex = end;
+		return tables;
+	}
+
+
+
+	// Parses SOI through the first SOS and prepares the per-component tables of that scan.
+	void readHeaders() throws IOException {
+		int current;
+
+		if (statistics != null) {
+			statistics.start();
+			reader.takeStuffed(); // of an earlier decode without statistics
+		}
+
+		yLoc = 0;
+		restartRow = 0;
+		current = readHeaderMarker();
+
+		if (current != 0xFFD8) { // SOI
+			throw new IOException("Not a JPEG file");
+		}
+
+		current = readHeaderMarker();
+
+		while (((current >> 4) != 0x0FFC) || (current == 0xFFC4)) { // SOF 0~15
+			readMarkerSegment(current);
+			current = readHeaderMarker();
+		}
+
+		if ((current < 0xFFC0) || (current > 0xFFC7)) {
+			throw new IOException("ERROR: could not handle arithmetic code!");
+		}
+
+		frame.read(this);
+		readComponentDims();
+		current = readHeaderMarker();
+
+		while (current != 0x0FFDA) { //SOS
+			readMarkerSegment(current);
+			current = readHeaderMarker();
+		}
+
+		final int precision = frame.getPrecision();
+
+		if (precision == 8) {
+			mask = 0xFF;
+		} else {
+			mask = 0xFFFF;
+		}
+
+		scan.read(this);
+		beginScan();
+
+		fullScan = (numComp == frame.getNumComponents()) && !sampled;
+
+		for (int i = 0; i < frame.getNumComponents(); i++) {
+			fullScan &= (componentDimX[i] == frame.getDimX()) && (componentDimY[i] == frame.getDimY());
+		}
+
+		applyRegion();
+
+		if (statistics != null) {
+			statistics.lapHeader();
+		}
+	}
+
+
+
+	// Sizes each frame component by its sampling factors: ceil(X * H / Hmax) samples by ceil(Y * V / Vmax) lines.
+	private void readComponentDims() throws IOException {
+		final int components = frame.getNumComponents();
+
+		maxHSamp = 1;
+		maxVSamp = 1;
+
+		for (int i = 0; i < components; i++) {
+			final ComponentSpec component = frame.getComponent(frame.getComponentId(i));
+
+			if (component == null) {
+				throw new IOException("ERROR: frame component " + frame.getComponentId(i) + " has a sampling factor of 0");
+			}
+
+			maxHSamp = Math.max(maxHSamp, component.hSamp);
+			maxVSamp = Math.max(maxVSamp, component.vSamp);
+		}
+
+		componentDimX = reuse(componentDimX, components);
+		componentDimY = reuse(componentDimY, components);
+
+		for (int i = 0; i < components; i++) {
+			final ComponentSpec component = frame.getComponent(frame.getComponentId(i));
+			componentDimX[i] = (int) ((((long) frame.getDimX() * component.hSamp) + maxHSamp - 1) / maxHSamp);
+			componentDimY[i] = (int) ((((long) frame.getDimY() * component.vSamp) + maxVSamp - 1) / maxVSamp);
+		}
+	}
+
+
+
+	// Prepares the tables and the sample grid of the scan whose header was just read. A scan of one component, or of
+	// components with one sample per MCU, is decoded row by row like an image of the size of its components; a scan
+	// that interleaves larger MCUs is sampled and goes through decodeSampled().
+	private void beginScan() throws IOException {
+		numComp = scan.getNumComponents();
+		selection = scan.getSelection();
+		sampled = false;
+		yLoc = 0;
+		restartRow = 0;
+
+		if ((numComp < 1) || (numComp > dcTab.length)) {
+			throw new IOException("ERROR: " + numComp + " components in a scan");
+		}
+
+		final ScanComponent[] scanComps = scan.components;
+
+		for (int i = 0; i < numComp; i++) {
+			final int compN = scanComps[i].getScanCompSel();
+			final ComponentSpec component = frame.getComponent(compN);
+
+			if (component == null) {
+				throw new IOException("ERROR: scan component " + compN + " is not in the frame");
+			}
+
+			frameComp[i] = frame.indexOf(compN);
+			hSamp[i] = component.hSamp;
+			vSamp[i] = component.vSamp;
+			sampled |= (numComp > 1) && ((component.hSamp * component.vSamp) > 1);
+			final int table = scanComps[i].getDcTabSel();
+
+			if ((table >= HuffTab.length) || (HuffTab[table][0] == null)) {
+				throw new IOException("ERROR: Huffman table " + table + " is not defined");
+			}
+
+			dcTab[i] = HuffTab[table][0];
+		}
+
+		xDim = sampled ? frame.getDimX() : componentDimX[frameComp[0]];
+		yDim = sampled ? frame.getDimY() : componentDimY[frameComp[0]];
+	}
+
+
+
+	// The output holds the region of a full scan, reduced when setOutputSize() asks for it, and every sample of the
+	// components of any other scan.
+	private void applyRegion() {
+		if ((regionWidth > 0) && (regionHeight > 0) && !fullScan) {
+			throw new IllegalArgumentException("regions need the components at full resolution in a single scan");
+		}
+
+		if ((regionWidth == 0) || (regionHeight == 0)) {
+			outputX = 0;
+			outputY = 0;
+			outputWidth = xDim;
+			outputHeight = yDim;
+		} else if (((long) regionX + regionWidth > xDim) || ((long) regionY + regionHeight > yDim)) {
+			throw new IllegalArgumentException("region " + regionX + "," + regionY + " " + regionWidth + "x" + regionHeight + " is outside the " + xDim + "x"
+					+ yDim + " image");
+		} else {
+			outputX = regionX;
+			outputY = regionY;
+			outputWidth = regionWidth;
+			outputHeight = regionHeight;
+		}
+
+		scaledWidth = outputWidth;
+		scaledHeight = outputHeight;
+
+		if ((reduceWidth > 0) && (reduceHeight > 0)) {
+			if (!fullScan) {
+				throw new IllegalArgumentException("reduced output needs the components at full resolution in a single scan");
+			}
+
+			if ((reduceWidth > outputWidth) || (reduceHeight > outputHeight)) {
+				throw new IllegalArgumentException("cannot reduce " + outputWidth + "x" + outputHeight + " samples to " + reduceWidth + "x" + reduceHeight);
+			}
+
+			scaledWidth = reduceWidth;
+			scaledHeight = reduceHeight;
+		}
+	}
+
+
+
+	private boolean isReduced() {
+		return (scaledWidth != outputWidth) || (scaledHeight != outputHeight);
+	}
+
+
+
+	int[][] allocateOutput() {
+		final int components = frame.getNumComponents();
+		final int[][] outputRef = new int[components][];
+
+		for (int i = 0; i < components; i++) {
+			outputRef[i] = new int[planeWidth(i) * planeHeight(i)];
+		}
+
+		setOutput(null, null, outputRef, null, null, components);
+		return outputRef;
+	}
+
+
+
+	// Samples per line of the output of frame component c, the (reduced) region's width for a full scan.
+	private int planeWidth(final int c) {
+		return fullScan ? scaledWidth : componentDimX[c];
+	}
+
+
+
+	private int planeHeight(final int c) {
+		return fullScan ? scaledHeight : componentDimY[c];
+	}
+
+
+
+	// Single buffer layouts map onto one target per component that shares the buffer.
+	private void setOutput(final byte[][] bytes, final short[][] shorts, final int[][] ints, final int offset, final int stride, final int layout) {
+		if ((layout < OUTPUT_PLANAR) || (layout > OUTPUT_PACKED_BGR)) {
+			throw new IllegalArgumentException("unknown output layout " + layout);
+		}
+
+		final int components = frame.getNumComponents();
+
+		for (int i = 1; i < components; i++) {
+			if ((planeWidth(i) != planeWidth(0)) || (planeHeight(i) != planeHeight(0))) {
+				throw new IllegalArgumentException("single buffer layouts need components of equal size, use one buffer per component");
+			}
+		}
+
+		final boolean interleaved = (layout == OUTPUT_INTERLEAVED_RGB) || (layout == OUTPUT_INTERLEAVED_BGR);
+		final int pixelStride = interleaved ? components : 1;
+		final int rowStride = stride > 0 ? stride : planeWidth(0) * pixelStride;
+		final int[] offsets = outputOffset = reuse(outputOffset, components);
+		final int[] strides = outputStride = reuse(outputStride, components);
+
+		for (int i = 0; i < components; i++) {
+			strides[i] = rowStride;
+
+			if (layout == OUTPUT_PLANAR) {
+				offsets[i] = offset + (i * rowStride * planeHeight(0));
+			} else if (layout == OUTPUT_INTERLEAVED_RGB) {
+				offsets[i] = offset + i;
+			} else if (layout == OUTPUT_INTERLEAVED_BGR) {
+				offsets[i] = (offset + components) - 1 - i;
+			} else {
+				offsets[i] = offset;
+			}
+		}
+
+		setOutput(bytes, shorts, ints, offsets, strides, components, pixelStride, layout);
+	}
+
+
+
+	private void setOutput(final byte[][] bytes, final short[][] shorts, final int[][] ints, final int[] offset, final int[] stride, final int count) {
+		setOutput(bytes, shorts, ints, offset, stride, count, 1, OUTPUT_PLANAR);
+	}
+
+
+
+	private void setOutput(final byte[][] bytes, final short[][] shorts, final int[][] ints, final int[] offset, final int[] stride, final int count,
+			final int pixelStride, final int layout) {
+		final int components = frame.getNumComponents();
+
+		if (count < components) {
+			throw new IllegalArgumentException("need " + components + " output buffers, got " + count);
+		}
+
+		byteOutput = bytes;
+		shortOutput = shorts;
+		intOutput = ints;
+		sink = null;
+		outputOffset = reuse(outputOffset, components);
+		outputStride = reuse(outputStride, components);
+		outputPixelStride = pixelStride;
+		outputLayout = layout;
+
+		for (int i = 0; i < components; i++) {
+			final int width = planeWidth(i);
+			final int height = planeHeight(i);
+			outputOffset[i] = offset == null ? 0 : offset[i];
+			outputStride[i] = stride == null ? width : stride[i];
+
+			final int length = bytes != null ? bytes[i].length : shorts != null ? shorts[i].length : ints[i].length;
+			final long last = outputOffset[i] + ((long) (height - 1) * outputStride[i]) + ((long) (width - 1) * pixelStride) + 1;
+
+			if ((outputOffset[i] < 0) || (outputStride[i] < (width * pixelStride)) || (last > length)) {
+				throw new IllegalArgumentException("output " + i + " of length " + length + " cannot hold " + width + "x" + height
+						+ " samples at offset " + outputOffset[i] + " with stride " + outputStride[i]);
+			}
+		}
+
+		allocateRows();
+	}
+
+
+
+	private void allocateRows() {
+		currentRow = reuse(currentRow, numComp, xDim);
+		previousRow = reuse(previousRow, numComp, xDim);
+		differences = reuse(differences, numComp, xDim);
+
+		if (isReduced()) {
+			allocateBins();
+		} else if ((sink != null) && (outputX > 0)) {
+			sinkRow = reuse(sinkRow, numComp, outputWidth);
+		}
+	}
+
+
+
+	// Maps the columns of the region onto the output columns, as x * scaledWidth / outputWidth does for the rows.
+	private void allocateBins() {
+		binColumn = reuse(binColumn, outputWidth);
+		binWidth = reuse(binWidth, scaledWidth);
+		binSums = reuse(binSums, numComp * scaledWidth);
+		binRow = reuse(binRow, numComp, scaledWidth);
+		binRows = 0;
+
+		Arrays.fill(binWidth, 0, scaledWidth, 0);
+		Arrays.fill(binSums, 0, numComp * scaledWidth, 0);
+
+		for (int x = 0; x < outputWidth; x++) {
+			binColumn[x] = (int) (((long) x * scaledWidth) / outputWidth);
+			binWidth[binColumn[x]]++;
+		}
+	}
+
+
+
+	// Arrays only grow, so a decoder reused for images of mixed size settles on the largest. The decode loops go by
+	// numComp and xDim, never by array length.
+	private static int[] reuse(final int array[], final int length) {
+		return (array != null) && (array.length >= length) ? array : new int[length];
+	}
+
+
+
+	private static long[] reuse(final long array[], final int length) {
+		return (array != null) && (array.length >= length) ? array : new long[length];
+	}
+
+
+
+	private static int[][] reuse(final int array[][], final int rows, final int length) {
+		if ((array != null) && (array.length >= rows) && ((array.length == 0) || (array[0].length >= length))) {
+			return array;
+		}
+
+		final int width = (array != null) && (array.length > 0) ? Math.max(length, array[0].length) : length;
+		return new int[array != null ? Math.max(rows, array.length) : rows][width];
+	}
+
+
+
+	private void readMarkerSegment(final int current) throws IOException {
+		switch (current) {
+			case 0xFFC4: // DHT
+				if (statistics != null) {
+					statistics.lapHeader();
+				}
+
+				huffTable.read(this, HuffTab);
+
+				if (statistics != null) {
+					statistics.lapTables();
+				}
+
+				break;
+			case 0xFFCC: // DAC
+				throw new IOException("Program doesn't support arithmetic coding. (format throw new IOException)");
+			case 0xFFDB:
+				quantTable.read(this, TABLE);
+				break;
+			case 0xFFDD:
+				restartInterval = readNumber();
+				break;
+			case 0xFFDC: // DNL, the number of lines is taken from the frame header
+				readNumber();
+				break;
+			case 0xFFE0:
+			case 0xFFE1:
+			case 0xFFE2:
+			case 0xFFE3:
+			case 0xFFE4:
+			case 0xFFE5:
+			case 0xFFE6:
+			case 0xFFE7:
+			case 0xFFE8:
+			case 0xFFE9:
+			case 0xFFEA:
+			case 0xFFEB:
+			case 0xFFEC:
+			case 0xFFED:
+			case 0xFFEE:
+			case 0xFFEF:
+			case 0xFFFE: // COM
+				skipSegment();
+				break;
+			default:
+				if ((current >> 8) != 0xFF) {
+					throw new IOException("ERROR: format throw new IOException! (decode)");
+				}
+		}
+	}
+
+
+
+	@Override
+	public final int get16() {
+		final int value = (buffer.getShort(dataBufferIndex) & 0xFFFF);
+		dataBufferIndex += 2;
+		return value;
+	}
+
+
+
+	@Override
+	public final int get8() {
+		return buffer.get(dataBufferIndex++) & 0xFF;
+	}
+
+
+
+	// Reads the differences of the samples of the current row into diff, one per sample of each component: the MCUs
+	// of a scan that is not sampled hold one sample per component.
+	private void readRowDifferences(final int diff[][]) throws IOException {
+		if (numComp == 1) {
+			final int table[] = dcTab[0];
+			final int d[] = diff[0];
+
+			for (int x = 0; x < xDim; x++) {
+				d[x] = reader.decodeDifference(table);
+			}
+
+			return;
+		}
+
+		for (int x = 0; x < xDim; x++) {
+			for (int c = 0; c < numComp; c++) {
+				diff[c][x] = reader.decodeDifference(dcTab[c]);
+			}
+		}
+	}
+
+
+
+	// Reconstructs the first count samples of the current row from their differences. The first row of the image or of
+	// a restart interval is predicted from the left (the first sample from 2^(P-1)), the first sample of any other row
+	// from above, and everything else by the selected predictor, with one loop per predictor.
+	void reconstructRow(final int diff[][], final int count) {
+		if (count == 0) {
+			return;
+		}
+
+		final boolean firstRow = yLoc == restartRow;
+
+		for (int c = 0; c < numComp; c++) {
+			reconstructSamples(currentRow[c], previousRow[c], diff[c], count, firstRow);
+		}
+	}
+
+
+
+	// Reconstructs the first count samples of one line of a component into cur, given the line above it in up.
+	private void reconstructSamples(final int cur[], final int up[], final int d[], final int count, final boolean firstRow) {
+		final int sampleMask = mask;
+		int ra;
+
+		if (firstRow) {
+			ra = 1 << (frame.getPrecision() - 1);
+
+			for (int x = 0; x < count; x++) {
+				ra = cur[x] = (ra + d[x]) & sampleMask;
+			}
+
+			return;
+		}
+
+		ra = cur[0] = (up[0] + d[0]) & sampleMask;
+
+		switch (selection) {
+			case 2:
+				for (int x = 1; x < count; x++) {
+					cur[x] = (up[x] + d[x]) & sampleMask;
+				}
+				break;
+			case 3:
+				for (int x = 1; x < count; x++) {
+					cur[x] = (up[x - 1] + d[x]) & sampleMask;
+				}
+				break;
+			case 4:
+				for (int x = 1; x < count; x++) {
+					ra = cur[x] = (((ra + up[x]) - up[x - 1]) + d[x]) & sampleMask;
+				}
+				break;
+			case 5:
+				for (int x = 1; x < count; x++) {
+					ra = cur[x] = (ra + ((up[x] - up[x - 1]) >> 1) + d[x]) & sampleMask;
+				}
+				break;
+			case 6:
+				for (int x = 1; x < count; x++) {
+					ra = cur[x] = (up[x] + ((ra - up[x - 1]) >> 1) + d[x]) & sampleMask;
+				}
+				break;
+			case 7:
+				for (int x = 1; x < count; x++) {
+					ra = cur[x] = (((ra + up[x]) >>> 1) + d[x]) & sampleMask;
+				}
+				break;
+			default:
+				for (int x = 1; x < count; x++) {
+					ra = cur[x] = (ra + d[x]) & sampleMask;
+				}
+				break;
+		}
+	}
+
+
+
+	void nextRow() throws IOException {
+		if (yLoc >= outputY) { // rows above the region are only needed for prediction
+			if (isReduced()) {
+				reduceRow();
+			} else if (sink != null) {
+				sink.row(yLoc - outputY, regionRow(currentRow), outputWidth);
+			} else {
+				storeRow(currentRow, outputX, outputWidth, yLoc - outputY);
+			}
+		}
+
+		final int[][] swap = previousRow;
+		previousRow = currentRow;
+		currentRow = swap;
+
+		yLoc++;
+	}
+
+
+
+	// The region's columns of rows, starting at index 0 as a RowSink expects them.
+	private int[][] regionRow(final int rows[][]) {
+		if (outputX == 0) {
+			return rows;
+		}
+
+		for (int c = 0; c < numComp; c++) {
+			System.arraycopy(rows[c], outputX, sinkRow[c], 0, outputWidth);
+		}
+
+		return sinkRow;
+	}
+
+
+
+	// Adds the region's columns of the reconstructed row to the sums of their output samples, and stores the output row
+	// once its last row is in. Rows skipped in a damaged interval leave a bin with fewer rows.
+	private void reduceRow() throws IOException {
+		final int y = yLoc - outputY;
+		final int bin = (int) (((long) y * scaledHeight) / outputHeight);
+
+		if ((binRows > 0) && (bin != binY)) {
+			storeBin();
+		}
+
+		final int sign = (displayLut != null) && displayLut.isSigned() ? 1 << (displayLut.getBitsStored() - 1) : 0;
+		final int valueMask = sign != 0 ? displayLut.mask : -1;
+		final int column[] = binColumn;
+		final long sums[] = binSums;
+
+		for (int c = 0; c < numComp; c++) {
+			final int row[] = currentRow[c];
+			final int base = c * scaledWidth;
+
+			for (int x = 0; x < outputWidth; x++) {
+				sums[base + column[x]] += ((row[outputX + x] & valueMask) ^ sign) - sign;
+			}
+		}
+
+		binY = bin;
+		binRows++;
+
+		if (((y + 1) == outputHeight) || ((((long) (y + 1) * scaledHeight) / outputHeight) != bin)) {
+			storeBin();
+		}
+	}
+
+
+
+	// Stores the rounded means of the sums as output row binY and clears the sums for the next one.
+	private void storeBin() throws IOException {
+		final int sampleMask = (1 << frame.getPrecision()) - 1;
+
+		for (int c = 0; c < numComp; c++) {
+			final int out[] = binRow[c];
+			final int base = c * scaledWidth;
+
+			for (int x = 0; x < scaledWidth; x++) {
+				final long area = (long) binWidth[x] * binRows;
+				final long sum = binSums[base + x] + (area / 2);
+				out[x] = (int) (sum >= 0 ? sum / area : -((area - 1 - sum) / area)) & sampleMask;
+				binSums[base + x] = 0;
+			}
+		}
+
+		binRows = 0;
+
+		if (sink != null) {
+			sink.row(binY, binRow, scaledWidth);
+		} else {
+			storeRow(binRow, 0, scaledWidth, binY);
+		}
+	}
+
+
+
+	// Narrows count samples of each row from column first on straight into output row y, in the output layout.
+	private void storeRow(final int rows[][], final int first, final int count, final int y) {
+		if (outputLayout >= OUTPUT_PACKED_RGB) {
+			storePackedRow(rows, first, count, y);
+			return;
+		}
+
+		final int pixelStride = outputPixelStride;
+		final int end = first + count;
+
+		for (int c = 0; c < numComp; c++) {
+			final int row[] = rows[c];
+			final int f = frameComp[c];
+			final int base = outputOffset[f] + (y * outputStride[f]);
+
+			if ((byteOutput != null) && (displayLut != null)) {
+				storeDisplay(row, first, byteOutput[f], base, pixelStride, count);
+			} else if (pixelStride == 1) {
+				if (intOutput != null) {
+					System.arraycopy(row, first, intOutput[f], base, count);
+				} else if (shortOutput != null) {
+					KERNELS.narrow(row, first, shortOutput[f], base, count);
+				} else {
+					KERNELS.narrow(row, first, byteOutput[f], base, count);
+				}
+			} else {
+				if (intOutput != null) {
+					final int out[] = intOutput[f];
+					for (int i = first, j = base; i < end; i++, j += pixelStride) {
+						out[j] = row[i];
+					}
+				} else if (shortOutput != null) {
+					final short out[] = shortOutput[f];
+					for (int i = first, j = base; i < end; i++, j += pixelStride) {
+						out[j] = (short) row[i];
+					}
+				} else {
+					final byte out[] = byteOutput[f];
+					for (int i = first, j = base; i < end; i++, j += pixelStride) {
+						out[j] = (byte) row[i];
+					}
+				}
+			}
+		}
+	}
+
+
+
+	// Narrows the first count samples of line y of frame component f into its output, for decodeSampled().
+	private void storeSamples(final int f, final int y, final int row[], final int count) {
+		final int pixelStride = outputPixelStride;
+		final int base = outputOffset[f] + (y * outputStride[f]);
+
+		if (intOutput != null) {
+			final int out[] = intOutput[f];
+			for (int i = 0, j = base; i < count; i++, j += pixelStride) {
+				out[j] = row[i];
+			}
+		} else if (shortOutput != null) {
+			final short out[] = shortOutput[f];
+			for (int i = 0, j = base; i < count; i++, j += pixelStride) {
+				out[j] = (short) row[i];
+			}
+		} else if (displayLut != null) {
+			storeDisplay(row, 0, byteOutput[f], base, pixelStride, count);
+		} else {
+			final byte out[] = byteOutput[f];
+			for (int i = 0, j = base; i < count; i++, j += pixelStride) {
+				out[j] = (byte) row[i];
+			}
+		}
+	}
+
+
+
+	// Maps count samples from row[from] on through the display LUT into out, pixelStride apart from out[at] on.
+	private void storeDisplay(final int row[], final int from, final byte out[], final int at, final int pixelStride, final int count) {
+		final byte lut[] = displayLut.table;
+		final int lutMask = displayLut.mask;
+
+		for (int i = from, j = at; i < (from + count); i++, j += pixelStride) {
+			out[j] = lut[row[i] & lutMask];
+		}
+	}
+
+
+
+	private void storePackedRow(final int rows[][], final int first, final int count, final int y) {
+		final int out[] = intOutput[0];
+		final int base = (outputOffset[0] + (y * outputStride[0])) - first;
+		final int end = first + count;
+		final int red[] = rows[0];
+		final int green[] = rows[numComp > 1 ? 1 : 0];
+		final int blue[] = rows[numComp > 2 ? 2 : 0];
+		final int alpha = outputLayout == OUTPUT_PACKED_ARGB ? 0xFF000000 : 0;
+		final int redShift = outputLayout == OUTPUT_PACKED_BGR ? 0 : 16;
+		final int blueShift = 16 - redShift;
+
+		if (displayLut != null) {
+			final byte lut[] = displayLut.table;
+			final int lutMask = displayLut.mask;
+
+			for (int i = first; i < end; i++) {
+				out[base + i] = alpha | ((lut[red[i] & lutMask] & 0xFF) << redShift) | ((lut[green[i] & lutMask] & 0xFF) << 8)
+						| ((lut[blue[i] & lutMask] & 0xFF) << blueShift);
+			}
+		} else {
+			for (int i = first; i < end; i++) {
+				out[base + i] = alpha | ((red[i] & 0xFF) << redShift) | ((green[i] & 0xFF) << 8) | ((blue[i] & 0xFF) << blueShift);
+			}
+		}
+	}
+
+
+
+	// Jumps over a marker segment by its length, e.g. APPn and COM, whose content is not used.
+	private void skipSegment() {
+		final int length = get16();
+		dataBufferIndex += length - 2;
+	}
+
+
+
+	private int readNumber() throws IOException {
+		final int Ld = get16();
+
+		if (Ld != 4) {
+			throw new IOException("ERROR: Define number format throw new IOException [Ld!=4]");
+		}
+
+		return get16();
+	}
+
+
+
+	public int getNumComponents() {
+		return frame.getNumComponents();
+	}
+
+
+
+	/**
+	 * @param component index in the order of the frame header, which is the order of the output
+	 * @return samples per line of the component, less than getDimX() for a horizontally subsampled one
+	 */
+	public int getComponentDimX(final int component) {
+		return componentDimX[component];
+	}
+
+
+
+	/**
+	 * @return lines of the component, less than getDimY() for a vertically subsampled one
+	 */
+	public int getComponentDimY(final int component) {
+		return componentDimY[component];
+	}
+
+
+
+	DisplayLut getDisplayLut() {
+		return displayLut;
+	}
+
+
+
+	// Whether the first scan holds every component at full resolution, as regions, a RowSink and packed layouts need.
+	boolean isFullScan() {
+		return fullScan;
 	}
 
 
@@ -0,0 +1,100 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Thread-safe pool of reusable decoders. A decoder is taken with acquire(), decodes one stream into caller supplied
+ * output, and is handed back with release(). Once warm, acquire, decode and release allocate nothing, so a service
+ * decoding many images per second produces no per-image garbage apart from its own output.
+ *
+ * <pre>
+ * final JPEGLosslessDecoder decoder = pool.acquire(data);
+ * try {
+ * 	decoder.decode(pixels, 0, 0, JPEGLosslessDecoder.OUTPUT_PLANAR);
+ * } finally {
+ * 	pool.release(decoder);
+ * }
+ * </pre>
+ *
+ * When all pooled decoders are in use a new one is created, and decoders released into a full pool are dropped.
+ */
+public class JPEGLosslessDecoderPool {
+
+	private final AtomicReferenceArray<JPEGLosslessDecoder> decoders;
+
+
+
+	/**
+	 * @param capacity most decoders kept for reuse, e.g. the number of decoding threads
+	 */
+	public JPEGLosslessDecoderPool(final int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity " + capacity + " < 1");
+		}
+
+		decoders = new AtomicReferenceArray<JPEGLosslessDecoder>(capacity);
+	}
+
+
+
+	/**
+	 * @return a decoder reset to data, in its default settings
+	 */
+	public JPEGLosslessDecoder acquire(final ByteBuffer data) {
+		final int capacity = decoders.length();
+		final int start = start(capacity);
+
+		for (int i = 0; i < capacity; i++) {
+			final int slot = (start + i) % capacity;
+
+			if (decoders.get(slot) != null) {
+				final JPEGLosslessDecoder decoder = decoders.getAndSet(slot, null);
+
+				if (decoder != null) {
+					decoder.reset(data);
+					return decoder;
+				}
+			}
+		}
+
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder();
+		decoder.reset(data);
+		return decoder;
+	}
+
+
+
+	public JPEGLosslessDecoder acquire(final byte[] data) {
+		return acquire(ByteBuffer.wrap(data));
+	}
+
+
+
+	/**
+	 * Hands a decoder back. It drops its references to the input and output first, so the pool does not keep images
+	 * alive. The decoder must not be used after this call.
+	 */
+	public void release(final JPEGLosslessDecoder decoder) {
+		final int capacity = decoders.length();
+		final int start = start(capacity);
+
+		decoder.clear();
+
+		for (int i = 0; i < capacity; i++) {
+			final int slot = (start + i) % capacity;
+
+			if ((decoders.get(slot) == null) && decoders.compareAndSet(slot, null, decoder)) {
+				return;
+			}
+		}
+	}
+
+
+
+	// Threads start their search at different slots, so they rarely contend for the same one.
+	private static int start(final int capacity) {
+		return (int) (Thread.currentThread().getId() % capacity);
+	}
+}
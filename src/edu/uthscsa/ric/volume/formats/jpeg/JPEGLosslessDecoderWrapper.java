@@ -1,132 +1,328 @@
 
 package edu.uthscsa.ric.volume.formats.jpeg;
 
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DataBufferUShort;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
- * This class provides the conversion of a byte buffer 
- * containing a JPEGLossless to an BufferedImage. 
+ * This class provides the conversion of a byte buffer
+ * containing a JPEGLossless to an BufferedImage.
  * Therefore it uses the rii-mango JPEGLosslessDecoder
  * Library ( https://github.com/rii-mango/JPEGLosslessDecoder )
- * 
+ *
  * Take care, that only the following lossless formats are supported
  * 1.2.840.10008.1.2.4.57 JPEG Lossless, Nonhierarchical (Processes 14)
  * 1.2.840.10008.1.2.4.70 JPEG Lossless, Nonhierarchical (Processes 14 [Selection 1])
- * 
- * Currently the following conversions are supported
- * 	- 24Bit, RGB       -> BufferedImage.TYPE_INT_RGB
- *  -  8Bit, Grayscale -> BufferedImage.TYPE_BYTE_GRAY
- *  - 16Bit, Grayscale -> BufferedImage.TYPE_USHORT_GRAY
- * 
+ *
+ * The decoder writes straight into the backing array of the image raster,
+ * there is no intermediate int[][] copy. Images are created as
+ * 	-  8Bit, RGB          -> BufferedImage.TYPE_INT_RGB
+ *  -  8Bit, Grayscale    -> BufferedImage.TYPE_BYTE_GRAY
+ *  - 16Bit, Grayscale    -> BufferedImage.TYPE_USHORT_GRAY
+ *  - 2-16Bit, Grayscale  -> DataBufferByte/DataBufferUShort with a gray ComponentColorModel of that precision
+ *  - 2-16Bit, RGB        -> pixel interleaved DataBufferByte/DataBufferUShort with an sRGB ComponentColorModel of that precision
+ *  - with a DisplayLut    -> as 8Bit data
+ *
  * @author Hermann Kroll
  *
  */
 public class JPEGLosslessDecoderWrapper {
 
+	private DecodeStatistics statistics;
+
+	/**
+	 * Adds what every following readImage call decodes to statistics,
+	 * see JPEGLosslessDecoder.setStatistics. Creating the image is not
+	 * timed. DecodeStatistics are not thread safe, so a wrapper that
+	 * collects them must not be shared between threads. Pass null to
+	 * stop collecting.
+	 *
+	 * @param statistics counts and times of the decodes, may be null
+	 */
+	public void setStatistics(DecodeStatistics statistics){
+		this.statistics = statistics;
+	}
+
 	/**
-	 * Converts a byte buffer (containing a jpeg lossless) 
+	 * Converts a byte buffer (containing a jpeg lossless)
 	 * to an Java BufferedImage
-	 * Currently the following conversions are supported
-	 * 	- 24Bit, RGB       -> BufferedImage.TYPE_INT_RGB
-	 *  -  8Bit, Grayscale -> BufferedImage.TYPE_BYTE_GRAY
-	 *  - 16Bit, Grayscale -> BufferedImage.TYPE_USHORT_GRAY
-	 * 
+	 *
 	 * @param data byte buffer which contains a jpeg lossless
 	 * @return if successfully a BufferedImage is returned
 	 * @throws IOException is thrown if the decoder failed or a conversion is not supported
 	 */
 	public BufferedImage readImage(byte[] data) throws IOException{
+		return readImage(data, null);
+	}
+
+	/**
+	 * Decodes a byte buffer (containing a jpeg lossless)
+	 * into a Java BufferedImage, reusing the given image when possible.
+	 *
+	 * An image can be reused when it has the same size, a top level raster,
+	 * and a layout the decoder can write into: banded, single band or
+	 * RGB/BGR pixel interleaved samples (DataBufferByte for up to 8 bit,
+	 * DataBufferUShort for up to 16 bit, e.g. TYPE_3BYTE_BGR), or packed
+	 * TYPE_INT_RGB, TYPE_INT_ARGB and TYPE_INT_BGR for 8 bit data.
+	 * Its ColorModel must have components of the precision of the data,
+	 * e.g. TYPE_USHORT_GRAY only takes 16 bit data, 12 bit data gets an
+	 * image with a 12 bit ComponentColorModel instead.
+	 *
+	 * @param data byte buffer which contains a jpeg lossless
+	 * @param reuse image to decode into, may be null
+	 * @return reuse if it was compatible, otherwise a newly created image
+	 * @throws IOException is thrown if the decoder failed or a conversion is not supported
+	 */
+	public BufferedImage readImage(byte[] data, BufferedImage reuse) throws IOException{
+		return readImage(new JPEGLosslessDecoder(data), reuse);
+	}
+
+	/**
+	 * Like readImage(byte[], BufferedImage), for a jpeg lossless held in a
+	 * ByteBuffer from its position to its limit, e.g. a direct or memory
+	 * mapped buffer, which is decoded without copying it into the heap.
+	 *
+	 * @param data buffer which contains a jpeg lossless
+	 * @param reuse image to decode into, may be null
+	 * @return reuse if it was compatible, otherwise a newly created image
+	 * @throws IOException is thrown if the decoder failed or a conversion is not supported
+	 */
+	public BufferedImage readImage(ByteBuffer data, BufferedImage reuse) throws IOException{
+		return readImage(new JPEGLosslessDecoder(data), reuse);
+	}
+
+	/**
+	 * Decodes a byte buffer (containing a jpeg lossless of any precision)
+	 * into 8 bit display pixels, mapping every sample through lut while
+	 * it is decoded, e.g. rescale slope/intercept and window level.
+	 * Images are created as TYPE_BYTE_GRAY or TYPE_INT_RGB, reuse can
+	 * be any of the 8 bit images readImage(byte[], BufferedImage) accepts.
+	 *
+	 * @param data byte buffer which contains a jpeg lossless
+	 * @param lut maps the stored samples to display values
+	 * @param reuse image to decode into, may be null
+	 * @return reuse if it was compatible, otherwise a newly created image
+	 * @throws IOException is thrown if the decoder failed or a conversion is not supported
+	 */
+	public BufferedImage readImage(byte[] data, DisplayLut lut, BufferedImage reuse) throws IOException{
 		JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(data);
- 
-		
-		int[][] decoded = decoder.decode();
+		decoder.setDisplayLut(lut);
+		return readImage(decoder, reuse);
+	}
+
+	private BufferedImage readImage(JPEGLosslessDecoder decoder, BufferedImage reuse) throws IOException{
+		decoder.setStatistics(statistics);
+		decoder.readHeaders();
+
 		int width = decoder.getDimX();
 		int height = decoder.getDimY();
-		
-		if(decoder.getNumComponents() == 1){
-			switch(decoder.getPrecision())
-			{
-			case 8:
-				return read8Bit1ComponentGrayScale(decoded, width, height);
-			case 16:
-				return read16Bit1ComponentGrayScale(decoded, width, height);
-			default:
-				throw new IOException("JPEG Lossless with " + decoder.getPrecision() + " bit precision and 1 component cannot be decoded");
+		int precision = decoder.getPrecision();
+		int numComponents = decoder.getNumComponents();
+
+		if((precision < 2) || (precision > 16) || ((numComponents != 1) && (numComponents != 3))){
+			throw new IOException("JPEG Lossless with " + precision + " bit precision and " + numComponents + " component(s) cannot be decoded");
+		}
+		if(decoder.getDisplayLut() != null){
+			precision = 8;
+		}
+		for(int i = 0; i < numComponents; i++){
+			if(decoder.getComponentDimX(i) != width || decoder.getComponentDimY(i) != height){
+				throw new IOException("JPEG Lossless with subsampled components cannot be decoded into a BufferedImage");
 			}
 		}
-		//rgb
-		if(decoder.getNumComponents() == 3){
-			switch(decoder.getPrecision())
-			{
-			case 24:
-                        case 8:
-				return read24Bit3ComponentRGB(decoded, width, height);
 
-			default:
-				throw new IOException("JPEG Lossless with " + decoder.getPrecision() + " bit precision and 3 components cannot be decoded");
-			}
+		boolean packed = decoder.isFullScan();
+
+		BufferedImage image = reuse;
+		if(image == null || !isCompatible(image, width, height, precision, numComponents, packed)
+				|| (decoder.getDisplayLut() != null && image.getRaster().getDataBuffer() instanceof DataBufferUShort)){
+			image = createImage(width, height, precision, numComponents, packed);
 		}
-		
-		throw new IOException("JPEG Lossless with " + decoder.getPrecision() + " bit precision and " + decoder.getNumComponents() + " component(s) cannot be decoded");
-		
+
+		decodeInto(decoder, image.getRaster(), precision, numComponents);
+		return image;
 	}
-	
+
 	/**
-	 * converts the decoded buffer into a BufferedImage
-	 * precision: 16 bit, componentCount = 1
-	 * @param decoded data buffer
+	 * creates an image whose raster the decoder can write into directly
 	 * @param width of the image
 	 * @param height of the image
-	 * @return a BufferedImage.TYPE_USHORT_GRAY
+	 * @param precision bits per sample
+	 * @param numComponents 1 or 3
+	 * @param packed whether the decoder can write packed RGB pixels
+	 * @return a new BufferedImage
 	 */
-	private BufferedImage read16Bit1ComponentGrayScale(int[][] decoded, int width, int height){
-		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
-		short[] imageBuffer = ((DataBufferUShort) image.getRaster().getDataBuffer()).getData();
+	private BufferedImage createImage(int width, int height, int precision, int numComponents, boolean packed){
+		if(numComponents == 3 && precision == 8 && packed){
+			return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		}
+		if(numComponents == 1 && precision == 8){
+			return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+		}
+		if(numComponents == 1 && precision == 16){
+			return new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+		}
+
+		int transferType = precision <= 8 ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
+		ColorModel colorModel;
 
-		for(int i = 0; i < imageBuffer.length; i++){
-			imageBuffer[i] =  (short)decoded[0][i];
+		if(numComponents == 1){
+			colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), new int[] { precision }, false, false, Transparency.OPAQUE, transferType);
+		} else {
+			colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), new int[] { precision, precision, precision }, false, false, Transparency.OPAQUE, transferType);
 		}
-		return image;
+
+		return new BufferedImage(colorModel, colorModel.createCompatibleWritableRaster(width, height), false, null);
 	}
+
 	/**
-	 * converts the decoded buffer into a BufferedImage
-	 * precision: 8 bit, componentCount = 1
-	 * @param decoded data buffer
-	 * @param width of the image
-	 * @param height of the image
-	 * @return a BufferedImage.TYPE_BYTE_GRAY
+	 * checks whether the decoder can write into the raster of the given image
 	 */
-	private BufferedImage read8Bit1ComponentGrayScale(int[][] decoded, int width, int height){
-		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
-		byte[] imageBuffer = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+	private boolean isCompatible(BufferedImage image, int width, int height, int precision, int numComponents, boolean packed){
+		WritableRaster raster = image.getRaster();
 
-		for(int i = 0; i < imageBuffer.length; i++){
-			imageBuffer[i] =  (byte)decoded[0][i];
+		if(image.getWidth() != width || image.getHeight() != height){
+			return false;
 		}
-		return image;
+		if(raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0){
+			return false;
+		}
+
+		// the samples are displayed through the color model, which would scale samples of another precision
+		ColorModel colorModel = image.getColorModel();
+		if(colorModel.getNumComponents() < numComponents){
+			return false;
+		}
+		for(int i = 0; i < numComponents; i++){
+			if(colorModel.getComponentSize(i) != precision){
+				return false;
+			}
+		}
+
+		int layout = layoutOf(raster, precision, numComponents);
+		return layout >= 0 && (packed || layout < JPEGLosslessDecoder.OUTPUT_PACKED_RGB);
 	}
-	
+
 	/**
-	 * converts the decoded buffer into a BufferedImage
-	 * precision: 24 bit, componentCount = 3
-	 * @param decoded data buffer
-	 * @param width of the image
-	 * @param height of the image
-	 * @return a BufferedImage.TYPE_INT_RGB
+	 * finds the decoder output layout that matches the raster
+	 * @return one of the JPEGLosslessDecoder.OUTPUT_ constants, or -1 if the decoder cannot write into the raster
 	 */
-	private BufferedImage read24Bit3ComponentRGB(int[][] decoded, int width, int height){
-		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		int[] imageBuffer = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+	private int layoutOf(WritableRaster raster, int precision, int numComponents){
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
 
-		for(int i = 0; i < imageBuffer.length; i++){
-			//convert to RGB
-			imageBuffer[i] =  (decoded[0][i] << 16) | (decoded[1][i] << 8) | (decoded[2][i]);
+		if(sampleModel instanceof SinglePixelPackedSampleModel){
+			int[] masks = ((SinglePixelPackedSampleModel) sampleModel).getBitMasks();
+			if(!(dataBuffer instanceof DataBufferInt) || precision > 8 || (numComponents != 1 && numComponents != 3)){
+				return -1;
+			}
+			if(masks.length == 3 && masks[0] == 0xFF0000 && masks[1] == 0xFF00 && masks[2] == 0xFF){
+				return JPEGLosslessDecoder.OUTPUT_PACKED_RGB;
+			}
+			if(masks.length == 3 && masks[0] == 0xFF && masks[1] == 0xFF00 && masks[2] == 0xFF0000){
+				return JPEGLosslessDecoder.OUTPUT_PACKED_BGR;
+			}
+			if(masks.length == 4 && masks[0] == 0xFF0000 && masks[1] == 0xFF00 && masks[2] == 0xFF && masks[3] == 0xFF000000){
+				return JPEGLosslessDecoder.OUTPUT_PACKED_ARGB;
+			}
+			return -1;
+		}
+
+		if(!(sampleModel instanceof ComponentSampleModel) || raster.getNumBands() != numComponents){
+			return -1;
+		}
+		if(!((dataBuffer instanceof DataBufferByte && precision <= 8) || dataBuffer instanceof DataBufferUShort)){
+			return -1;
+		}
+
+		ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+		int[] bankIndices = componentModel.getBankIndices();
+		int[] bandOffsets = componentModel.getBandOffsets();
+
+		if(componentModel.getPixelStride() == 1){
+			return JPEGLosslessDecoder.OUTPUT_PLANAR;
+		}
+		if(componentModel.getPixelStride() != numComponents){
+			return -1;
+		}
+
+		boolean rgb = true;
+		boolean bgr = true;
+		for(int i = 0; i < numComponents; i++){
+			if(bankIndices[i] != bankIndices[0]){
+				return -1;
+			}
+			rgb &= bandOffsets[i] == i;
+			bgr &= bandOffsets[i] == numComponents - 1 - i;
+		}
+
+		return rgb ? JPEGLosslessDecoder.OUTPUT_INTERLEAVED_RGB : bgr ? JPEGLosslessDecoder.OUTPUT_INTERLEAVED_BGR : -1;
+	}
+
+	/**
+	 * decodes the scan straight into the backing array(s) of the raster
+	 */
+	private void decodeInto(JPEGLosslessDecoder decoder, WritableRaster raster, int precision, int numComponents) throws IOException{
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer dataBuffer = raster.getDataBuffer();
+		int layout = layoutOf(raster, precision, numComponents);
+
+		if(sampleModel instanceof SinglePixelPackedSampleModel){
+			int stride = ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+			decoder.decodeScan(((DataBufferInt) dataBuffer).getData(), dataBuffer.getOffset(), stride, layout);
+			return;
+		}
+
+		ComponentSampleModel componentModel = (ComponentSampleModel) sampleModel;
+		int[] bankIndices = componentModel.getBankIndices();
+		int[] bandOffsets = componentModel.getBandOffsets();
+
+		if(layout != JPEGLosslessDecoder.OUTPUT_PLANAR){
+			int offset = dataBuffer.getOffsets()[bankIndices[0]] + Math.min(bandOffsets[0], bandOffsets[numComponents - 1]);
+			int stride = componentModel.getScanlineStride();
+
+			if(dataBuffer instanceof DataBufferByte){
+				decoder.decodeScan(((DataBufferByte) dataBuffer).getData(bankIndices[0]), offset, stride, layout);
+			} else {
+				decoder.decodeScan(((DataBufferUShort) dataBuffer).getData(bankIndices[0]), offset, stride, layout);
+			}
+			return;
+		}
+
+		int[] offsets = new int[numComponents];
+		int[] strides = new int[numComponents];
+
+		for(int i = 0; i < numComponents; i++){
+			offsets[i] = dataBuffer.getOffsets()[bankIndices[i]] + bandOffsets[i];
+			strides[i] = componentModel.getScanlineStride();
+		}
+
+		if(dataBuffer instanceof DataBufferByte){
+			byte[][] banks = new byte[numComponents][];
+			for(int i = 0; i < numComponents; i++){
+				banks[i] = ((DataBufferByte) dataBuffer).getData(bankIndices[i]);
+			}
+			decoder.decodeScan(banks, offsets, strides);
+		} else {
+			short[][] banks = new short[numComponents][];
+			for(int i = 0; i < numComponents; i++){
+				banks[i] = ((DataBufferUShort) dataBuffer).getData(bankIndices[i]);
+			}
+			decoder.decodeScan(banks, offsets, strides);
 		}
-		return image;
 	}
-	
+
 }
@@ -0,0 +1,253 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * What a stream holds, read from its marker segments up to the first SOS without building Huffman tables or decoding
+ * any pixel, so a service can route or reject an image before paying for its decode. APPn and COM segments are jumped
+ * over by their length. Immutable.
+ *
+ * <pre>
+ * final JPEGLosslessHeader header = JPEGLosslessHeader.probe(data);
+ * if (header.isLossless() &amp;&amp; (header.getPrecision() &lt;= 16)) { ...
+ * </pre>
+ */
+public final class JPEGLosslessHeader {
+
+	private final int startOfFrame;
+	private final int dimX, dimY;
+	private final int precision;
+	private final int componentIds[], hSamp[], vSamp[]; // per frame component, in frame order
+	private final int scanComponentIds[];
+	private final int selection;
+	private final int pointTransform;
+	private final int restartInterval;
+	private final int huffmanTables; // bit 4 * class + destination of each table defined
+	private final boolean tables; // whether the scan's tables are all defined
+	private final int dataOffset;
+
+	JPEGLosslessHeader(final int startOfFrame, final FrameHeader frame, final ScanHeader scan, final int restartInterval, final int huffmanTables,
+			final int dataOffset) {
+		this.startOfFrame = startOfFrame;
+		dimX = frame.getDimX();
+		dimY = frame.getDimY();
+		precision = frame.getPrecision();
+
+		final int count = frame.getNumComponents();
+
+		componentIds = new int[count];
+		hSamp = new int[count];
+		vSamp = new int[count];
+
+		for (int i = 0; i < count; i++) {
+			final ComponentSpec component = frame.getComponent(frame.getComponentId(i));
+			componentIds[i] = frame.getComponentId(i);
+			hSamp[i] = component != null ? component.hSamp : 0;
+			vSamp[i] = component != null ? component.vSamp : 0;
+		}
+
+		scanComponentIds = new int[scan.getNumComponents()];
+		boolean defined = true;
+
+		for (int i = 0; i < scanComponentIds.length; i++) {
+			scanComponentIds[i] = scan.components[i].getScanCompSel();
+			defined &= (huffmanTables & (1 << (scan.components[i].getDcTabSel() & 0x03))) != 0;
+		}
+
+		tables = defined;
+
+		selection = scan.getSelection();
+		pointTransform = scan.getAl();
+		this.restartInterval = restartInterval;
+		this.huffmanTables = huffmanTables;
+		this.dataOffset = dataOffset;
+	}
+
+
+
+	/**
+	 * Reads the headers of the stream from data.position() on. data itself is not modified.
+	 *
+	 * @throws IOException if the stream is not a JPEG stream or ends before its first scan
+	 */
+	public static JPEGLosslessHeader probe(final ByteBuffer data) throws IOException {
+		return new JPEGLosslessDecoder(data).probe();
+	}
+
+
+
+	public static JPEGLosslessHeader probe(final byte[] data) throws IOException {
+		return probe(ByteBuffer.wrap(data));
+	}
+
+
+
+	/**
+	 * @return the SOF marker, 0xFFC3 for the lossless process
+	 */
+	public int getStartOfFrame() {
+		return startOfFrame;
+	}
+
+
+
+	public boolean isLossless() {
+		return (startOfFrame == 0xFFC3) || (startOfFrame == 0xFFC7) || (startOfFrame == 0xFFCB) || (startOfFrame == 0xFFCF);
+	}
+
+
+
+	public int getDimX() {
+		return dimX;
+	}
+
+
+
+	/**
+	 * @return the number of lines, 0 if a DNL segment after the scan defines it
+	 */
+	public int getDimY() {
+		return dimY;
+	}
+
+
+
+	public int getPrecision() {
+		return precision;
+	}
+
+
+
+	public int getNumComponents() {
+		return componentIds.length;
+	}
+
+
+
+	/**
+	 * @return the component identifiers of the frame, in the order of the frame header, which the decoder's output
+	 *         follows
+	 */
+	public int[] getComponentIds() {
+		return componentIds.clone();
+	}
+
+
+
+	/**
+	 * @param component index into getComponentIds()
+	 */
+	public int getHorizontalSampling(final int component) {
+		return hSamp[component];
+	}
+
+
+
+	public int getVerticalSampling(final int component) {
+		return vSamp[component];
+	}
+
+
+
+	/**
+	 * @param component index into getComponentIds()
+	 * @return samples per line of the component, ceil(getDimX() * H / Hmax) for horizontal sampling factor H
+	 */
+	public int getComponentDimX(final int component) {
+		return (int) ((((long) dimX * hSamp[component]) + max(hSamp) - 1) / max(hSamp));
+	}
+
+
+
+	/**
+	 * @return lines of the component, ceil(getDimY() * V / Vmax) for vertical sampling factor V
+	 */
+	public int getComponentDimY(final int component) {
+		return (int) ((((long) dimY * vSamp[component]) + max(vSamp) - 1) / max(vSamp));
+	}
+
+
+
+	private static int max(final int samp[]) {
+		int max = 1;
+
+		for (int i = 0; i < samp.length; i++) {
+			max = Math.max(max, samp[i]);
+		}
+
+		return max;
+	}
+
+
+
+	/**
+	 * @return the component identifiers of the first scan, in scan order; fewer than the frame's when the components
+	 *         are coded in separate scans
+	 */
+	public int[] getScanComponentIds() {
+		return scanComponentIds.clone();
+	}
+
+
+
+	/**
+	 * @return the predictor of the first scan, 1 to 7
+	 */
+	public int getSelection() {
+		return selection;
+	}
+
+
+
+	public int getPointTransform() {
+		return pointTransform;
+	}
+
+
+
+	/**
+	 * @return samples per restart interval, 0 without restart markers
+	 */
+	public int getRestartInterval() {
+		return restartInterval;
+	}
+
+
+
+	/**
+	 * @param tableClass 0 for DC and lossless tables, 1 for AC tables
+	 * @return whether a DHT segment before the first scan defines the table
+	 */
+	public boolean hasHuffmanTable(final int tableClass, final int destination) {
+		return (huffmanTables & (1 << ((tableClass * 4) + destination))) != 0;
+	}
+
+
+
+	/**
+	 * @return true if every component of the first scan has its table, false for abbreviated streams that need
+	 *         JPEGLosslessDecoder.setDefaultTables()
+	 */
+	public boolean hasTables() {
+		return tables;
+	}
+
+
+
+	/**
+	 * @return offset of the entropy coded data of the first scan from the start of the stream
+	 */
+	public int getDataOffset() {
+		return dataOffset;
+	}
+
+
+
+	@Override
+	public String toString() {
+		return "SOF " + Integer.toHexString(startOfFrame) + ", " + dimX + "x" + dimY + ", " + precision + " bit, " + componentIds.length + " components, "
+				+ "predictor " + selection + ", restart interval " + restartInterval;
+	}
+}
@@ -0,0 +1,197 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where the restart intervals of a stream start. Built once by scanning the stream for its restart markers, kept next
+ * to the image, e.g. serialized with toBytes(), and handed to JPEGLosslessDecoder.setRestartIndex() to decode a band
+ * of rows set with setRegion() without scanning or decoding any of the intervals above it. Decoding a file range
+ * mapped through the FileChannel constructor then only reads the headers and the intervals of the band.
+ *
+ * The decoder requires restart intervals of whole rows, so interval i starts at column 0 of row i *
+ * getRowsPerInterval(). Offsets count from the start of the stream, SOI, and are immutable.
+ */
+public final class RestartIndex {
+
+	private static final int MAGIC = 0x4C4A5249; // LJRI
+	private static final int VERSION = 1;
+
+	private final int dimX, dimY;
+	private final int rowsPerInterval;
+	private final int offsets[]; // of the entropy coded data of each interval
+
+	RestartIndex(final int dimX, final int dimY, final int rowsPerInterval, final int offsets[]) {
+		this.dimX = dimX;
+		this.dimY = dimY;
+		this.rowsPerInterval = rowsPerInterval;
+		this.offsets = offsets;
+	}
+
+
+
+	/**
+	 * Scans a stream with restart markers, from data.position() on.
+	 *
+	 * @throws IOException if the stream has no restart intervals of whole rows
+	 */
+	public static RestartIndex build(final ByteBuffer data) throws IOException {
+		final JPEGLosslessDecoder decoder = new JPEGLosslessDecoder(data);
+		decoder.readHeaders();
+		return decoder.indexIntervals();
+	}
+
+
+
+	public static RestartIndex build(final byte[] data) throws IOException {
+		return build(ByteBuffer.wrap(data));
+	}
+
+
+
+	public int getDimX() {
+		return dimX;
+	}
+
+
+
+	public int getDimY() {
+		return dimY;
+	}
+
+
+
+	public int getRowsPerInterval() {
+		return rowsPerInterval;
+	}
+
+
+
+	/**
+	 * @return the number of intervals found, fewer than the image needs if the stream is truncated
+	 */
+	public int getIntervalCount() {
+		return offsets.length;
+	}
+
+
+
+	public int getFirstRow(final int interval) {
+		return interval * rowsPerInterval;
+	}
+
+
+
+	/**
+	 * @return offset of the entropy coded data of interval from the start of the stream
+	 */
+	public int getOffset(final int interval) {
+		return offsets[interval];
+	}
+
+
+
+	/**
+	 * @return the index in a compact form, about two bytes per interval
+	 */
+	public byte[] toBytes() {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(16 + (2 * offsets.length));
+		writeInt(out, MAGIC);
+		out.write(VERSION);
+		writeVarInt(out, dimX);
+		writeVarInt(out, dimY);
+		writeVarInt(out, rowsPerInterval);
+		writeVarInt(out, offsets.length);
+
+		for (int i = 0; i < offsets.length; i++) {
+			writeVarInt(out, i == 0 ? offsets[0] : offsets[i] - offsets[i - 1]);
+		}
+
+		return out.toByteArray();
+	}
+
+
+
+	/**
+	 * @throws IOException if bytes do not hold an index written by toBytes()
+	 */
+	public static RestartIndex fromBytes(final byte[] bytes) throws IOException {
+		final ByteBuffer in = ByteBuffer.wrap(bytes);
+
+		if ((bytes.length < 5) || (in.getInt() != MAGIC)) {
+			throw new IOException("not a restart index");
+		}
+
+		if (in.get() != VERSION) {
+			throw new IOException("unknown restart index version " + bytes[4]);
+		}
+
+		final int dimX = readVarInt(in);
+		final int dimY = readVarInt(in);
+		final int rowsPerInterval = readVarInt(in);
+		final int count = readVarInt(in);
+
+		if ((rowsPerInterval == 0) || (count > in.remaining())) {
+			throw new IOException("corrupt restart index");
+		}
+
+		final int offsets[] = new int[count];
+
+		for (int i = 0; i < count; i++) {
+			final int delta = readVarInt(in);
+			offsets[i] = i == 0 ? delta : offsets[i - 1] + delta;
+
+			if ((i > 0) && ((delta < 2) || (offsets[i] < 0))) { // an RST marker between any two intervals
+				throw new IOException("corrupt restart index");
+			}
+		}
+
+		return new RestartIndex(dimX, dimY, rowsPerInterval, offsets);
+	}
+
+
+
+	private static void writeInt(final ByteArrayOutputStream out, final int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+
+
+	// Seven bits per byte, low bits first, the high bit set on all but the last byte.
+	private static void writeVarInt(final ByteArrayOutputStream out, final int value) {
+		int rest = value;
+
+		while ((rest & ~0x7F) != 0) {
+			out.write((rest & 0x7F) | 0x80);
+			rest >>>= 7;
+		}
+
+		out.write(rest);
+	}
+
+
+
+	private static int readVarInt(final ByteBuffer in) throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (!in.hasRemaining()) {
+				throw new IOException("truncated restart index");
+			}
+
+			final int b = in.get() & 0xFF;
+			value |= (b & 0x7F) << shift;
+
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+
+		throw new IOException("corrupt restart index");
+	}
+}
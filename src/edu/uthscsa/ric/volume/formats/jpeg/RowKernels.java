@@ -0,0 +1,51 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+/**
+ * Narrowing a reconstructed row to short or byte output. These scalar loops run everywhere; create() picks the Vector API
+ * versions of VectorRowKernels instead when asked to and they can run. The other loops over a row (packing RGB ints, predictors 2
+ * and 3) stay in the decoder, C2 already vectorizes them.
+ */
+class RowKernels {
+
+	static final String PROPERTY = "edu.uthscsa.ric.volume.formats.jpeg.vector"; // true for the Vector API kernels
+
+
+
+	// VectorRowKernels when PROPERTY is true, the vector source tree was built, the JVM runs with --add-modules
+	// jdk.incubator.vector and its preferred vectors hold at least 8 ints, otherwise these scalar kernels. Not the
+	// default: until C2 has compiled them into their callers the vector kernels box their vectors, so a decode that
+	// runs into interpreted or deoptimized code allocates.
+	static RowKernels create() {
+		if (Boolean.getBoolean(PROPERTY)) {
+			try {
+				return (RowKernels) Class.forName("edu.uthscsa.ric.volume.formats.jpeg.VectorRowKernels").getDeclaredConstructor().newInstance();
+			} catch (final Throwable e) { // not built, the module is not resolved, or the vectors are too short
+			}
+		}
+
+		return new RowKernels();
+	}
+
+
+
+	String getName() {
+		return "scalar";
+	}
+
+
+
+	// dst[at + i] = (byte) src[from + i] for i below count.
+	void narrow(final int src[], final int from, final byte dst[], final int at, final int count) {
+		for (int i = from, j = at; i < (from + count); i++, j++) {
+			dst[j] = (byte) src[i];
+		}
+	}
+
+
+
+	void narrow(final int src[], final int from, final short dst[], final int at, final int count) {
+		for (int i = from, j = at; i < (from + count); i++, j++) {
+			dst[j] = (short) src[i];
+		}
+	}
+}
@@ -0,0 +1,193 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single producer, single consumer ring of rows, handing entropy decoded differences from one thread to the
+ * thread that reconstructs them. Each side only writes its own counter, so no locks are needed: the volatile write of
+ * a counter publishes the slots filled or freed before it. A side that still has to wait after spinning parks until
+ * the other side moves its counter, so a stalled thread does not burn a CPU.
+ *
+ * The producer has to start() before it publishes. Until it does, the consumer may take the decode over instead of
+ * waiting, e.g. when the executor running the producer is busy, or ran it on the consumer's own thread.
+ */
+final class RowRing {
+
+	private static final int SPINS = 100;
+	private static final long PARK_NANOS = 1000000; // bounds a park, in case an unpark is ever missed
+
+	private static final int WAITING = 0;
+	private static final int STARTED = 1;
+	private static final int TAKEN_OVER = 2;
+
+	private final int[][][] rows; // [slot][component][x]
+	private final int[] counts; // samples in each published slot
+
+	private volatile long head; // next slot to take, written by the consumer only
+	private volatile long tail; // next slot to publish, written by the producer only
+	private volatile boolean finished;
+	private volatile boolean closed;
+	private volatile Thread parkedProducer;
+	private volatile Thread parkedConsumer;
+	private final AtomicInteger state = new AtomicInteger(WAITING);
+	private final Thread owner; // the consumer, which creates the ring
+	private int marker;
+	private Throwable failure;
+
+
+
+	RowRing(final int size, final int numComp, final int width) {
+		rows = new int[size][numComp][width];
+		counts = new int[size];
+		owner = Thread.currentThread();
+	}
+
+
+
+	// Producer: false if the consumer took the decode over. Run on the consumer's own thread, e.g. by an executor that
+	// runs tasks on the submitting thread, it hands the decode to the consumer, which cannot wait for itself.
+	boolean start() {
+		if (Thread.currentThread() == owner) {
+			state.compareAndSet(WAITING, TAKEN_OVER);
+			return false;
+		}
+
+		final boolean started = state.compareAndSet(WAITING, STARTED);
+		unpark(parkedConsumer);
+		return started;
+	}
+
+
+
+	// Producer: waits for a free slot, returns null once the consumer closed the ring.
+	int[][] claim() {
+		int spins = 0;
+
+		while ((tail - head) == rows.length) {
+			if (closed) {
+				return null;
+			}
+
+			if (spins < SPINS) {
+				spins++;
+			} else {
+				parkedProducer = Thread.currentThread();
+
+				if (((tail - head) == rows.length) && !closed) { // release() or close() either see the thread or ran before
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+
+				parkedProducer = null;
+			}
+		}
+
+		return closed ? null : rows[(int) (tail % rows.length)];
+	}
+
+
+
+	// Producer: makes the claimed slot with count samples per component visible to the consumer.
+	void publish(final int count) {
+		counts[(int) (tail % rows.length)] = count;
+		tail = tail + 1;
+		unpark(parkedConsumer);
+	}
+
+
+
+	// Producer: no more rows follow; marker ended the scan, failure is non null if the producer failed.
+	void finish(final int marker, final Throwable failure) {
+		this.marker = marker;
+		this.failure = failure;
+		finished = true;
+		unpark(parkedConsumer);
+	}
+
+
+
+	// Consumer: waits for the next published slot, returns null after the last one, or if it took the decode over
+	// from a producer that had not started.
+	int[][] take() {
+		int spins = 0;
+		boolean parked = false;
+
+		while (head == tail) {
+			if (finished) {
+				if (head == tail) {
+					return null;
+				}
+
+				break;
+			}
+
+			if (spins < SPINS) {
+				spins++;
+			} else if ((state.get() == TAKEN_OVER) || (parked && state.compareAndSet(WAITING, TAKEN_OVER))) {
+				return null; // the producer gets one park to start, the time a thread takes to start is well within it
+			} else {
+				parkedConsumer = Thread.currentThread();
+
+				if ((head == tail) && !finished) {
+					LockSupport.parkNanos(this, PARK_NANOS);
+				}
+
+				parkedConsumer = null;
+				parked = true;
+			}
+		}
+
+		return rows[(int) (head % rows.length)];
+	}
+
+
+
+	// Consumer: number of samples per component in the slot returned by take().
+	int count() {
+		return counts[(int) (head % rows.length)];
+	}
+
+
+
+	// Consumer: hands the slot returned by take() back to the producer.
+	void release() {
+		head = head + 1;
+		unpark(parkedProducer);
+	}
+
+
+
+	// Consumer: stops the producer, e.g. when reconstruction failed.
+	void close() {
+		closed = true;
+		unpark(parkedProducer);
+	}
+
+
+
+	// Consumer: true if take() returned null because the producer never started, so the consumer decodes the rows.
+	boolean isTakenOver() {
+		return state.get() == TAKEN_OVER;
+	}
+
+
+
+	int getMarker() {
+		return marker;
+	}
+
+
+
+	Throwable getFailure() {
+		return failure;
+	}
+
+
+
+	private static void unpark(final Thread thread) {
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+}
@@ -0,0 +1,24 @@
+
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of an image as JPEGLosslessDecoder.decode(RowSink) reconstructs them, top to bottom, so the next
+ * stage can start on the first row while the decoder holds no more than the current row and the one above it.
+ */
+public interface RowSink {
+
+	/**
+	 * Called once per row, on the thread that called decode. The arrays are the decoder's working rows and are
+	 * overwritten after the call returns, so copy whatever is needed later. Rows of a damaged restart interval are
+	 * skipped, as are the rows after a truncated scan, so y is not always one more than the previous y.
+	 *
+	 * @param y row index, from 0 to getDimY() - 1, or counted from the top of the region with
+	 *            JPEGLosslessDecoder.setRegion(), or of the reduced rows with JPEGLosslessDecoder.setOutputSize()
+	 * @param samples samples per component, the first width entries of samples[c] for c below getNumComponents(),
+	 *            starting at the left edge of the region when one is set
+	 * @param width samples per row, the width of the region or of the reduced rows when set
+	 */
+	void row(int y, int[][] samples, int width) throws IOException;
+}
@@ -107,10 +107,23 @@ public class ScanHeader {
 		numComp = data.get8();
 		count++;
 
-		components = new ScanComponent[numComp];
+		if (length != (6 + (2 * numComp))) {
+			throw new IOException("ERROR: scan header format error [Ls!=6+2*Ns]");
+		}
+
+		if ((components == null) || (components.length < numComp)) { // reused from the previous scan when large enough
+			final ScanComponent previous[] = components;
+			components = new ScanComponent[numComp];
+
+			if (previous != null) {
+				System.arraycopy(previous, 0, components, 0, previous.length);
+			}
+		}
 
 		for (int i = 0; i < numComp; i++) {
-			components[i] = new ScanComponent();
+			if (components[i] == null) {
+				components[i] = new ScanComponent();
+			}
 
 			if (count > length) {
 				throw new IOException("ERROR: scan header format error");
@@ -0,0 +1,68 @@
+package edu.uthscsa.ric.volume.formats.jpeg;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * RowKernels on the Vector API, one preferred int vector at a time with the scalar kernels for the rest of a row.
+ * Narrowing converts to byte and short vectors of the same lane count, so the preferred vectors need at least 8 lanes,
+ * i.e. AVX2 or AVX-512 on x86; RowKernels.create() falls back to the scalar kernels on shorter ones.
+ *
+ * Built from its own source tree against the jdk.incubator.vector module of Java 16 and later, and used only when the
+ * JVM runs with --add-modules jdk.incubator.vector.
+ */
+final class VectorRowKernels extends RowKernels {
+
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+	private static final int LANES = INTS.length();
+	private static final VectorSpecies<Byte> BYTES = LANES >= 8 ? VectorSpecies.of(byte.class, VectorShape.forBitSize(LANES * 8)) : null;
+	private static final VectorSpecies<Short> SHORTS = LANES >= 8 ? VectorSpecies.of(short.class, VectorShape.forBitSize(LANES * 16)) : null;
+
+
+
+	VectorRowKernels() {
+		if (BYTES == null) {
+			throw new UnsupportedOperationException(INTS.vectorBitSize() + " bit vectors are too short");
+		}
+	}
+
+
+
+	@Override
+	String getName() {
+		return "vector " + INTS.vectorBitSize() + " bit";
+	}
+
+
+
+	@Override
+	void narrow(final int src[], final int from, final byte dst[], final int at, final int count) {
+		final int bound = INTS.loopBound(count);
+		int i = 0;
+
+		for (; i < bound; i += LANES) {
+			((ByteVector) IntVector.fromArray(INTS, src, from + i).convertShape(VectorOperators.I2B, BYTES, 0)).intoArray(dst, at + i);
+		}
+
+		super.narrow(src, from + i, dst, at + i, count - i);
+	}
+
+
+
+	@Override
+	void narrow(final int src[], final int from, final short dst[], final int at, final int count) {
+		final int bound = INTS.loopBound(count);
+		int i = 0;
+
+		for (; i < bound; i += LANES) {
+			((ShortVector) IntVector.fromArray(INTS, src, from + i).convertShape(VectorOperators.I2S, SHORTS, 0)).intoArray(dst, at + i);
+		}
+
+		super.narrow(src, from + i, dst, at + i, count - i);
+	}
+}